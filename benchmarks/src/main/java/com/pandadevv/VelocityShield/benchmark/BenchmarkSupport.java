@@ -0,0 +1,75 @@
+package com.pandadevv.VelocityShield.benchmark;
+
+import com.pandadevv.VelocityShield.VelocityShield;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Plugin setup shared by the benchmarks and the load test: a throwaway data directory with a given
+ * config.yml, and the plugin instance the rest of the code logs through.
+ */
+public final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Creates a temporary data directory holding {@code configYaml} as config.yml and registers a plugin
+     * instance for it. Keys missing from the YAML fall back to the plugin defaults.
+     */
+    public static Path createDataDirectory(String configYaml) {
+        try {
+            Path dataDirectory = Files.createTempDirectory("velocityshield-bench");
+            Files.writeString(dataDirectory.resolve("config.yml"), configYaml);
+            new VelocityShield(null, LoggerFactory.getLogger("VelocityShield"), dataDirectory, null);
+            return dataDirectory;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void deleteDirectory(Path directory) {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static String[] randomIPv4(int count, long seed) {
+        Random random = new Random(seed);
+        String[] ips = new String[count];
+        for (int i = 0; i < count; i++) {
+            int address = random.nextInt();
+            ips[i] = (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+        }
+        return ips;
+    }
+
+    public static String[] randomIPv6(int count, long seed) {
+        Random random = new Random(seed);
+        String[] ips = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder ip = new StringBuilder("2001:db8");
+            for (int group = 0; group < 6; group++) {
+                ip.append(':').append(Integer.toHexString(random.nextInt(0x10000)));
+            }
+            ips[i] = ip.toString();
+        }
+        return ips;
+    }
+}
@@ -0,0 +1,67 @@
+package com.pandadevv.VelocityShield.benchmark;
+
+import com.pandadevv.VelocityShield.util.IPCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IPCache lookups and inserts. The insert key set is twice the cache size, so inserts into a full
+ * cache also measure eviction. See {@link IPCacheContendedBenchmark} for the same under contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IPCacheBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"ipv4", "ipv6"})
+    public String family;
+
+    private Path dataDirectory;
+    private IPCache cache;
+    private String[] cachedIps;
+    private String[] missingIps;
+    private String[] insertIps;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataDirectory = BenchmarkSupport.createDataDirectory("enable-range-database: false\n");
+        cache = new IPCache(10, 10, 60, TimeUnit.MINUTES, size, 24, 64, 0, dataDirectory);
+        boolean ipv6 = family.equals("ipv6");
+        cachedIps = ipv6 ? BenchmarkSupport.randomIPv6(size, 1) : BenchmarkSupport.randomIPv4(size, 1);
+        missingIps = ipv6 ? BenchmarkSupport.randomIPv6(size, 2) : BenchmarkSupport.randomIPv4(size, 2);
+        insertIps = ipv6 ? BenchmarkSupport.randomIPv6(size * 2, 3) : BenchmarkSupport.randomIPv4(size * 2, 3);
+        for (int i = 0; i < cachedIps.length; i++) {
+            cache.cacheResult(cachedIps[i], (i & 7) == 0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.shutdown();
+        BenchmarkSupport.deleteDirectory(dataDirectory);
+    }
+
+    @Benchmark
+    public IPCache.Lookup lookupHit() {
+        return cache.lookup(cachedIps[ThreadLocalRandom.current().nextInt(cachedIps.length)]);
+    }
+
+    @Benchmark
+    public IPCache.Lookup lookupMiss() {
+        return cache.lookup(missingIps[ThreadLocalRandom.current().nextInt(missingIps.length)]);
+    }
+
+    @Benchmark
+    public void cacheResult() {
+        int index = ThreadLocalRandom.current().nextInt(insertIps.length);
+        cache.cacheResult(insertIps[index], (index & 7) == 0);
+    }
+}
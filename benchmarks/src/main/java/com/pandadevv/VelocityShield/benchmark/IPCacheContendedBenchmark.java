@@ -0,0 +1,11 @@
+package com.pandadevv.VelocityShield.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * {@link IPCacheBenchmark} with several threads sharing one cache, as during a join wave.
+ * Override the thread count with {@code -t}.
+ */
+@Threads(8)
+public class IPCacheContendedBenchmark extends IPCacheBenchmark {
+}
@@ -0,0 +1,233 @@
+package com.pandadevv.VelocityShield.benchmark;
+
+import com.pandadevv.VelocityShield.config.PluginConfig;
+import com.pandadevv.VelocityShield.provider.VpnProvider;
+import com.pandadevv.VelocityShield.util.CacheWarmer;
+import com.pandadevv.VelocityShield.util.LoginGate;
+import com.pandadevv.VelocityShield.util.OverloadController;
+import com.pandadevv.VelocityShield.util.VPNChecker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop login storm against the real {@link VPNChecker} and {@link PluginConfig}, with both
+ * detection services replaced by {@link StubProviderServer}. Each join runs the login handler's own
+ * decision, {@link LoginGate#check}, so whitelist, detection log and frequent joiner tracking are included.
+ * <p>
+ * Joins arrive at a fixed rate whether or not earlier ones have finished, drawn from three populations:
+ * repeat joiners from a fixed pool, unique bot addresses, and IPv6 clients rotating the interface part of
+ * a handful of /64 prefixes. Usage, all arguments optional:
+ * <pre>
+ * java -cp target/benchmarks.jar com.pandadevv.VelocityShield.benchmark.LoginStormLoadTest \
+ *     rate=500 duration=60 repeat=50 unique=40 ipv6=10 latency-ms=80 jitter-ms=120 \
+ *     error-percent=1 throttle-percent=1 config=path/to/config.yml
+ * </pre>
+ * Without {@code config} the plugin defaults are used, including the real provider rate limits.
+ */
+public class LoginStormLoadTest {
+    private static final int REPEAT_POOL_SIZE = 5000;
+    private static final int IPV6_PREFIXES = 64;
+
+    private final int rate;
+    private final int durationSeconds;
+    private final int repeatShare;
+    private final int uniqueShare;
+    private final String[] repeatPool = BenchmarkSupport.randomIPv4(REPEAT_POOL_SIZE, 11);
+    private final String[] ipv6Prefixes = new String[IPV6_PREFIXES];
+    private final AtomicInteger nextUnique = new AtomicInteger();
+
+    private final long[] latencies;
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final LongAdder pending = new LongAdder();
+
+    private LoginStormLoadTest(int rate, int durationSeconds, int repeatShare, int uniqueShare) {
+        this.rate = rate;
+        this.durationSeconds = durationSeconds;
+        this.repeatShare = repeatShare;
+        this.uniqueShare = uniqueShare;
+        this.latencies = new long[Math.toIntExact((long) rate * durationSeconds)];
+        for (int i = 0; i < IPV6_PREFIXES; i++) {
+            ipv6Prefixes[i] = "2001:db8:" + Integer.toHexString(i) + ":" + Integer.toHexString(i * 7919 & 0xFFFF);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                System.err.println("Arguments are key=value, got: " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        int rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int repeat = Integer.parseInt(options.getOrDefault("repeat", "50"));
+        int unique = Integer.parseInt(options.getOrDefault("unique", "40"));
+        int ipv6 = Integer.parseInt(options.getOrDefault("ipv6", "10"));
+        if (repeat + unique + ipv6 != 100) {
+            System.err.println("repeat, unique and ipv6 must add up to 100");
+            System.exit(1);
+        }
+
+        String configYaml = options.containsKey("config")
+            ? Files.readString(Path.of(options.get("config")))
+            : "proxycheck-api-key: \"loadtest\"\nenable-range-database: false\n";
+        Path dataDirectory = BenchmarkSupport.createDataDirectory(configYaml);
+        StubProviderServer stub = new StubProviderServer();
+        stub.setLatency(Long.parseLong(options.getOrDefault("latency-ms", "80")), Long.parseLong(options.getOrDefault("jitter-ms", "120")));
+        stub.setFailures(Double.parseDouble(options.getOrDefault("error-percent", "1")), Double.parseDouble(options.getOrDefault("throttle-percent", "1")));
+        stub.setVpnPercent(Integer.parseInt(options.getOrDefault("vpn-percent", "10")));
+
+        PluginConfig config = new PluginConfig(dataDirectory);
+        VPNChecker checker = new VPNChecker(config, dataDirectory, stub.getProxycheckEndpoint(), stub.getIpApiEndpoint());
+        CacheWarmer cacheWarmer = new CacheWarmer(checker, config, dataDirectory);
+        LoginGate gate = new LoginGate(config, checker, cacheWarmer);
+        try {
+            System.out.printf(Locale.ROOT, "Login storm: %d joins/s for %ds (%d%% repeat, %d%% unique, %d%% IPv6)%n",
+                rate, duration, repeat, unique, ipv6);
+            new LoginStormLoadTest(rate, duration, repeat, unique).run(config, gate, checker, stub);
+        } finally {
+            cacheWarmer.shutdown();
+            checker.shutdown();
+            config.shutdown();
+            stub.stop();
+            BenchmarkSupport.deleteDirectory(dataDirectory);
+        }
+        System.exit(0);
+    }
+
+    private void run(PluginConfig config, LoginGate gate, VPNChecker checker, StubProviderServer stub) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        for (int i = 0; i < latencies.length; i++) {
+            long scheduled = start + i * intervalNanos;
+            long now;
+            while ((now = System.nanoTime()) < scheduled) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+            // Latency counts from the scheduled arrival, so falling behind shows up instead of being hidden
+            join(config, gate, nextAddress(), scheduled);
+            if (now >= nextReport) {
+                System.out.printf(Locale.ROOT, "  %3ds: %d joins issued, %d pending, %d remote lookups, heap %d MB%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start), i + 1, pending.sum(), checker.getRemoteLookups(), usedHeapMb());
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+        long issuedIn = System.nanoTime() - start;
+
+        // Let the tail drain; lookups give up after their own timeout
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (recorded.get() < latencies.length && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        report(gate, checker, stub, threads, issuedIn);
+    }
+
+    private void join(PluginConfig config, LoginGate gate, String ip, long scheduled) {
+        pending.increment();
+        CompletableFuture<LoginGate.Outcome> outcome = gate.check(config.getSnapshot(), "LoadTest", ip);
+        outcome.whenComplete((result, error) -> {
+            pending.decrement();
+            record(scheduled);
+        });
+    }
+
+    private void record(long scheduled) {
+        int slot = recorded.getAndIncrement();
+        if (slot < latencies.length) {
+            latencies[slot] = System.nanoTime() - scheduled;
+        }
+    }
+
+    private String nextAddress() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int roll = random.nextInt(100);
+        if (roll < repeatShare) {
+            // Skewed towards the start of the pool so some players join far more often than others
+            int index = (int) (REPEAT_POOL_SIZE * Math.pow(random.nextDouble(), 3));
+            return repeatPool[index];
+        }
+        if (roll < repeatShare + uniqueShare) {
+            // Bots from a /8 the repeat pool only hits by chance, never the same address twice
+            int n = nextUnique.getAndIncrement();
+            return "100." + ((n >>> 16) & 0xFF) + "." + ((n >>> 8) & 0xFF) + "." + (n & 0xFF);
+        }
+        return ipv6Prefixes[random.nextInt(IPV6_PREFIXES)] + ":" + Integer.toHexString(random.nextInt(0x10000))
+            + ":" + Integer.toHexString(random.nextInt(0x10000)) + ":" + Integer.toHexString(random.nextInt(0x10000))
+            + ":" + Integer.toHexString(random.nextInt(0x10000));
+    }
+
+    private void report(LoginGate gate, VPNChecker checker, StubProviderServer stub, ThreadMXBean threads, long issuedNanos) {
+        int completed = Math.min(recorded.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Joins: %d issued in %.1fs (%.0f/s), %d completed, %d blocked, %d whitelisted%n",
+            latencies.length, issuedNanos / 1e9, latencies.length / (issuedNanos / 1e9), completed, gate.getBlockedCount(), gate.getWhitelistedCount());
+        System.out.printf(Locale.ROOT, "Decision latency: p50 %s | p99 %s | p99.9 %s | max %s%n",
+            percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 99.9), percentile(sorted, 100));
+        System.out.printf(Locale.ROOT, "API calls: proxycheck.io %d | ip-api.com %d | 500s served %d | 429s served %d%n",
+            stub.getProxycheckRequests(), stub.getIpApiRequests(), stub.getErrorResponses(), stub.getThrottledResponses());
+        System.out.printf(Locale.ROOT, "Lookups: %d remote | %d coalesced | %d hedged | %d failed | %d saturated | cache hits %d / misses %d | %d stale | %d prefix%n",
+            checker.getRemoteLookups(), checker.getCoalescedRequests(), checker.getHedgedRequests(), checker.getFailedLookups(), checker.getSaturatedLookups(),
+            checker.getCache().getHitCount(), checker.getCache().getMissCount(), checker.getStaleCacheHits(), checker.getPrefixCacheHits());
+        OverloadController overload = checker.getOverloadController();
+        System.out.printf(Locale.ROOT, "Overload: mode %s | %d mode changes | %d unknown IPs answered | %d priority lookups%n",
+            overload.getMode(), overload.getModeChanges(), overload.getDegradedVerdicts(), overload.getPriorityLookups());
+        for (VpnProvider provider : checker.getProviders()) {
+            System.out.printf(Locale.ROOT, "  %s: %d errors | rate limit %d delayed, %d rejected | circuit %s%n",
+                provider.getName(), provider.getErrorCount(), provider.getRateLimiter().getDelayedPermits(),
+                provider.getRateLimiter().getRejectedPermits(), provider.getCircuitBreaker().getState());
+        }
+        System.out.printf(Locale.ROOT, "Threads: %d live | %d peak | lookups on %s%n", threads.getThreadCount(), threads.getPeakThreadCount(),
+            checker.isUsingVirtualThreads() ? "virtual threads" : "a thread pool");
+        System.out.printf(Locale.ROOT, "Heap: %d MB used | %d MB peak%n", usedHeapMb(), peakHeapMb());
+    }
+
+    private static String percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return "n/a";
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile / 100.0) - 1);
+        return String.format(Locale.ROOT, "%.2fms", sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private static long usedHeapMb() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20;
+    }
+
+    private static long peakHeapMb() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak >> 20;
+    }
+}
@@ -0,0 +1,178 @@
+package com.pandadevv.VelocityShield.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for proxycheck.io and ip-api.com on a loopback port. Answers are deterministic
+ * per IP: an address is reported as a VPN when its hash falls under {@link #setVpnPercent}. Responses
+ * can be delayed, and a share of requests can be answered with 500 or 429 to imitate a struggling service.
+ */
+public class StubProviderServer {
+    static {
+        // Headers and body go out as separate writes; without TCP_NODELAY every response waits on a delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LongAdder proxycheckRequests = new LongAdder();
+    private final LongAdder ipApiRequests = new LongAdder();
+    private final LongAdder errorResponses = new LongAdder();
+    private final LongAdder throttledResponses = new LongAdder();
+    private volatile int vpnPercent = 10;
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double errorPercent;
+    private volatile double throttlePercent;
+
+    public StubProviderServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/proxycheck/", this::handleProxycheck);
+        server.createContext("/ip-api/", this::handleIpApi);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "StubProviderServer");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return base URL to pass as the proxycheck.io endpoint
+     */
+    public String getProxycheckEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/proxycheck/";
+    }
+
+    /**
+     * @return URL format to pass as the ip-api.com endpoint
+     */
+    public String getIpApiEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/ip-api/%s";
+    }
+
+    public void setVpnPercent(int vpnPercent) {
+        this.vpnPercent = vpnPercent;
+    }
+
+    /**
+     * Delays every response by {@code latencyMillis} plus a uniformly random share of {@code jitterMillis}.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * @param errorPercent    share of requests answered with HTTP 500
+     * @param throttlePercent share of requests answered with HTTP 429
+     */
+    public void setFailures(double errorPercent, double throttlePercent) {
+        this.errorPercent = errorPercent;
+        this.throttlePercent = throttlePercent;
+    }
+
+    public long getErrorResponses() {
+        return errorResponses.sum();
+    }
+
+    public long getThrottledResponses() {
+        return throttledResponses.sum();
+    }
+
+    public long getProxycheckRequests() {
+        return proxycheckRequests.sum();
+    }
+
+    public long getIpApiRequests() {
+        return ipApiRequests.sum();
+    }
+
+    public boolean isVPN(String ip) {
+        return Math.floorMod(ip.hashCode() * 0x9E3779B9, 100) < vpnPercent;
+    }
+
+    private void handleProxycheck(HttpExchange exchange) throws IOException {
+        proxycheckRequests.increment();
+        if (simulateTrouble(exchange, "{\"status\":\"denied\",\"message\":\"Too many requests\"}")) {
+            return;
+        }
+        String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        StringBuilder body = new StringBuilder("{\"status\":\"ok\"");
+        if (form.startsWith("ips=")) {
+            for (String ip : URLDecoder.decode(form.substring(4), StandardCharsets.UTF_8).split(",")) {
+                body.append(",\"").append(ip).append("\":{\"asn\":\"AS64496\",\"provider\":\"Stub\",\"proxy\":\"")
+                    .append(isVPN(ip) ? "yes" : "no").append("\",\"type\":\"")
+                    .append(isVPN(ip) ? "VPN" : "Residential").append("\"}");
+            }
+        }
+        respond(exchange, 200, body.append('}').toString());
+    }
+
+    private void handleIpApi(HttpExchange exchange) throws IOException {
+        ipApiRequests.increment();
+        if (simulateTrouble(exchange, "{\"status\":\"fail\",\"message\":\"Too many requests\"}")) {
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        String ip = path.substring(path.lastIndexOf('/') + 1);
+        respond(exchange, 200, "{\"status\":\"success\",\"isp\":\"Stub\",\"org\":\"Stub\",\"proxy\":"
+            + isVPN(ip) + ",\"query\":\"" + ip + "\"}");
+    }
+
+    /**
+     * Applies the configured latency, then answers with an error or a 429 if this request drew one.
+     *
+     * @return true if a response was sent
+     */
+    private boolean simulateTrouble(HttpExchange exchange, String throttledBody) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double roll = random.nextDouble() * 100;
+        if (roll < throttlePercent) {
+            throttledResponses.increment();
+            respond(exchange, 429, throttledBody);
+            return true;
+        }
+        if (roll < throttlePercent + errorPercent) {
+            errorResponses.increment();
+            respond(exchange, 500, "Internal Server Error");
+            return true;
+        }
+        return false;
+    }
+
+    protected void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,87 @@
+package com.pandadevv.VelocityShield.benchmark;
+
+import com.pandadevv.VelocityShield.config.PluginConfig;
+import com.pandadevv.VelocityShield.util.VPNChecker;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The full {@link VPNChecker#isVPN} path against {@link StubProviderServer} on loopback. {@code cached}
+ * asks for IPs already in the cache; {@code remote} asks for a new IP every time, so each call makes a
+ * real HTTP round trip through batching, rate limiting, the circuit breaker and response parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VPNCheckerBenchmark {
+    private static final int CACHED_IPS = 10000;
+    private static final int WARMUP_CONCURRENCY = 100;
+
+    @Param({"true", "false"})
+    public boolean proxycheckPrimary;
+
+    @Param({"0", "10"})
+    public int batchWindowMs;
+
+    private Path dataDirectory;
+    private StubProviderServer stub;
+    private PluginConfig config;
+    private VPNChecker checker;
+    private String[] cachedIps;
+    private final AtomicInteger nextIp = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDirectory = BenchmarkSupport.createDataDirectory(
+            "proxycheck-api-key: \"benchmark\"\n"
+                + "use-proxycheck-as-primary: " + proxycheckPrimary + "\n"
+                + "enable-range-database: false\n"
+                + "proxycheck-batch-window-ms: " + batchWindowMs + "\n"
+                + "proxycheck-requests-per-second: 1000000\n"
+                + "ip-api-requests-per-second: 1000000\n");
+        stub = new StubProviderServer();
+        config = new PluginConfig(dataDirectory);
+        checker = new VPNChecker(config, dataDirectory, stub.getProxycheckEndpoint(), stub.getIpApiEndpoint());
+        cachedIps = BenchmarkSupport.randomIPv4(CACHED_IPS, 7);
+        // A few batches at a time; firing everything at once would time out and open the circuit breakers
+        for (int start = 0; start < cachedIps.length; start += WARMUP_CONCURRENCY) {
+            CompletableFuture<?>[] warmup = new CompletableFuture<?>[Math.min(WARMUP_CONCURRENCY, cachedIps.length - start)];
+            for (int i = 0; i < warmup.length; i++) {
+                warmup[i] = checker.isVPN(cachedIps[start + i]);
+            }
+            CompletableFuture.allOf(warmup).join();
+        }
+        if (checker.getFailedLookups() > 0) {
+            throw new IllegalStateException(checker.getFailedLookups() + " lookups against the stub server failed during warm-up");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        checker.shutdown();
+        config.shutdown();
+        stub.stop();
+        BenchmarkSupport.deleteDirectory(dataDirectory);
+    }
+
+    @Benchmark
+    public Boolean cached() {
+        return checker.isVPN(cachedIps[ThreadLocalRandom.current().nextInt(cachedIps.length)]).join();
+    }
+
+    @Benchmark
+    public Boolean remote() {
+        // A fresh address from 10.0.0.0/8 each call; it would take 16M calls to wrap around into cached ones
+        int n = nextIp.getAndIncrement();
+        return checker.isVPN("10." + ((n >>> 16) & 0xFF) + "." + ((n >>> 8) & 0xFF) + "." + (n & 0xFF)).join();
+    }
+}
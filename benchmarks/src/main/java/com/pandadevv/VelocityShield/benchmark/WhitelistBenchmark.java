@@ -0,0 +1,58 @@
+package com.pandadevv.VelocityShield.benchmark;
+
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
+import com.pandadevv.VelocityShield.config.PluginConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whitelist checks through {@link ConfigSnapshot#isIPWhitelisted}, including address parsing, against a
+ * whitelist of random IPv4 ranges with prefix lengths between /16 and /32.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WhitelistBenchmark {
+    @Param({"10", "1000", "50000"})
+    public int entries;
+
+    private Path dataDirectory;
+    private PluginConfig config;
+    private String[] probes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDirectory = BenchmarkSupport.createDataDirectory("enable-range-database: false\n");
+        Random random = new Random(4);
+        StringBuilder whitelist = new StringBuilder();
+        for (int i = 0; i < entries; i++) {
+            int address = random.nextInt();
+            whitelist.append((address >>> 24)).append('.').append((address >>> 16) & 0xFF).append('.')
+                .append((address >>> 8) & 0xFF).append('.').append(address & 0xFF)
+                .append('/').append(16 + random.nextInt(17)).append('\n');
+        }
+        Files.writeString(dataDirectory.resolve("whitelist.txt"), whitelist);
+        config = new PluginConfig(dataDirectory);
+        probes = BenchmarkSupport.randomIPv4(4096, 5);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        config.shutdown();
+        BenchmarkSupport.deleteDirectory(dataDirectory);
+    }
+
+    @Benchmark
+    public boolean isIPWhitelisted() {
+        return config.getSnapshot().isIPWhitelisted(probes[ThreadLocalRandom.current().nextInt(probes.length)]);
+    }
+}
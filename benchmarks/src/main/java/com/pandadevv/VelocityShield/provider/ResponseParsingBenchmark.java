@@ -0,0 +1,68 @@
+package com.pandadevv.VelocityShield.provider;
+
+import com.google.gson.stream.JsonReader;
+import com.pandadevv.VelocityShield.benchmark.BenchmarkSupport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming parse of provider responses from bytes, the way responses are read after they arrive.
+ * Lives in the provider package because the parsers are package-private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseParsingBenchmark {
+    @Param({"1", "50"})
+    public int batchSize;
+
+    private byte[] ipApiResponse;
+    private byte[] proxycheckResponse;
+    private String[] batchIps;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ipApiResponse = ("{\"status\":\"success\",\"isp\":\"Example Hosting\",\"org\":\"Example Hosting Ltd\","
+            + "\"proxy\":true,\"query\":\"203.0.113.7\"}").getBytes(StandardCharsets.UTF_8);
+
+        batchIps = BenchmarkSupport.randomIPv4(batchSize, 6);
+        StringBuilder body = new StringBuilder("{\"status\":\"ok\"");
+        for (int i = 0; i < batchIps.length; i++) {
+            body.append(",\"").append(batchIps[i]).append("\":{\"asn\":\"AS64496\",\"provider\":\"Example Hosting\","
+                + "\"organisation\":\"Example Hosting Ltd\",\"continent\":\"Europe\",\"country\":\"Netherlands\","
+                + "\"isocode\":\"NL\",\"proxy\":\"").append(i % 4 == 0 ? "yes" : "no").append("\",\"type\":\"")
+                .append(i % 4 == 0 ? "VPN" : "Business").append("\"}");
+        }
+        proxycheckResponse = body.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Boolean ipApi() throws IOException {
+        return IpApiProvider.parseResponse(reader(ipApiResponse));
+    }
+
+    @Benchmark
+    public Map<String, CompletableFuture<Boolean>> proxycheckBatch() throws IOException {
+        Map<String, CompletableFuture<Boolean>> batch = new HashMap<>();
+        for (String ip : batchIps) {
+            batch.put(ip, new CompletableFuture<>());
+        }
+        ProxyCheckBatcher.parseResponse(reader(proxycheckResponse), batch);
+        return batch;
+    }
+
+    private static JsonReader reader(byte[] body) {
+        return new JsonReader(BufferedBodySubscriber.reader(List.of(ByteBuffer.wrap(body))));
+    }
+}
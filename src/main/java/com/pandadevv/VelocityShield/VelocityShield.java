@@ -2,17 +2,32 @@ package com.pandadevv.VelocityShield;
 
 import com.google.inject.Inject;
 import com.velocitypowered.api.command.CommandManager;
+import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.CommandMeta;
 import com.velocitypowered.api.command.SimpleCommand;
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.LoginEvent;
+import com.velocitypowered.api.event.connection.PreLoginEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
 import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
+import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
 import com.pandadevv.VelocityShield.config.PluginConfig;
 import com.pandadevv.VelocityShield.config.UpdateChecker;
+import com.pandadevv.VelocityShield.provider.VpnProvider;
+import com.pandadevv.VelocityShield.util.CacheWarmer;
+import com.pandadevv.VelocityShield.util.CircuitBreaker;
+import com.pandadevv.VelocityShield.util.IPCache;
+import com.pandadevv.VelocityShield.util.LatencyHistogram;
+import com.pandadevv.VelocityShield.util.LoginGate;
+import com.pandadevv.VelocityShield.util.MetricsExporter;
+import com.pandadevv.VelocityShield.util.OverloadController;
+import com.pandadevv.VelocityShield.util.RangeDatabase;
+import com.pandadevv.VelocityShield.util.TokenBucket;
 import com.pandadevv.VelocityShield.util.VPNChecker;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
@@ -22,8 +37,17 @@ import org.bstats.charts.SingleLineChart;
 import org.slf4j.Logger;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Plugin(
         id = "velocityshield",
@@ -43,12 +67,22 @@ public class VelocityShield {
     private MiniMessage miniMessage;
     private UpdateChecker updateChecker;
     private final AtomicInteger vpnMitigations = new AtomicInteger(0);
+    private MetricsExporter metricsExporter;
+    private CacheWarmer cacheWarmer;
+    private LoginGate loginGate;
+    private final LongAdder loginsBypassed = new LongAdder();
+    private final LongAdder loginsRejectedEarly = new LongAdder();
+    // Players seen with the bypass permission, so pre-login rejection can leave them to the full check;
+    // kept in bypass-players.txt so a restart doesn't forget them
+    private final Set<String> bypassUsernames = ConcurrentHashMap.newKeySet();
+    private final Path bypassUsernamesPath;
 
     @Inject
     public VelocityShield(ProxyServer server, Logger logger, @DataDirectory Path dataDirectory, Metrics.Factory metricsFactory) {
         this.server = server;
         this.logger = logger;
         this.dataDirectory = dataDirectory;
+        this.bypassUsernamesPath = dataDirectory.resolve("bypass-players.txt");
         this.metricsFactory = metricsFactory;
         instance = this;
         this.miniMessage = MiniMessage.miniMessage();
@@ -65,9 +99,15 @@ public class VelocityShield {
         // end bstats
         
         this.config = new PluginConfig(dataDirectory);
+        loadBypassUsernames();
         this.vpnChecker = new VPNChecker(config, dataDirectory);
+        this.cacheWarmer = new CacheWarmer(vpnChecker, config, dataDirectory);
+        this.cacheWarmer.start(getOnlineIps());
+        this.loginGate = new LoginGate(config, vpnChecker, cacheWarmer);
         this.updateChecker = new UpdateChecker(this);
         this.updateChecker.checkForUpdates();
+        this.metricsExporter = new MetricsExporter(this);
+        this.metricsExporter.start();
         
         CommandManager commandManager = server.getCommandManager();
         
@@ -76,13 +116,42 @@ public class VelocityShield {
                 .build();
         
         SimpleCommand reloadCommand = invocation -> {
-            if (!invocation.source().hasPermission("velocityshield.reload")) {
-                invocation.source().sendMessage(Component.text("You don't have permission to use this command!")
-                    .color(NamedTextColor.RED));
+            String[] args = invocation.arguments();
+            if (args.length > 0 && args[0].equalsIgnoreCase("status")) {
+                if (!checkPermission(invocation.source(), "velocityshield.admin")) {
+                    return;
+                }
+                sendProviderStatus(invocation.source());
+                return;
+            }
+            if (args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+                if (!checkPermission(invocation.source(), "velocityshield.admin")) {
+                    return;
+                }
+                sendStats(invocation.source());
+                return;
+            }
+            if (args.length > 0 && args[0].equalsIgnoreCase("importranges")) {
+                if (!checkPermission(invocation.source(), "velocityshield.admin")) {
+                    return;
+                }
+                if (args.length < 2) {
+                    invocation.source().sendMessage(Component.text("Usage: /vshield importranges <file.csv>")
+                        .color(NamedTextColor.RED));
+                    return;
+                }
+                importRanges(invocation.source(), args[1]);
+                return;
+            }
+
+            if (!checkPermission(invocation.source(), "velocityshield.reload")) {
                 return;
             }
             
             config.reload();
+            vpnChecker.reloadRangeDatabase();
+            metricsExporter.restart();
+            cacheWarmer.start(getOnlineIps());
             invocation.source().sendMessage(Component.text("Configuration reloaded!")
                 .color(NamedTextColor.GREEN));
         };
@@ -92,15 +161,13 @@ public class VelocityShield {
                 .build();
         
         SimpleCommand whitelistCommand = invocation -> {
-            if (!invocation.source().hasPermission("velocityshield.whitelist")) {
-                invocation.source().sendMessage(Component.text("You don't have permission to use this command!")
-                    .color(NamedTextColor.RED));
+            if (!checkPermission(invocation.source(), "velocityshield.whitelist")) {
                 return;
             }
             
             String[] args = invocation.arguments();
             if (args.length < 2) {
-                invocation.source().sendMessage(Component.text("Usage: /vshieldwhitelist <add|remove> <ip>")
+                invocation.source().sendMessage(Component.text("Usage: /vshieldwhitelist <add|remove> <ip|cidr>")
                     .color(NamedTextColor.RED));
                 return;
             }
@@ -110,12 +177,20 @@ public class VelocityShield {
             
             switch (action) {
                 case "add":
-                    config.addToWhitelist(ip);
+                    if (!config.addToWhitelist(ip)) {
+                        invocation.source().sendMessage(Component.text(ip + " is not a valid IP address or CIDR range!")
+                            .color(NamedTextColor.RED));
+                        break;
+                    }
                     invocation.source().sendMessage(Component.text("IP " + ip + " added to whitelist!")
                         .color(NamedTextColor.GREEN));
                     break;
                 case "remove":
-                    config.removeFromWhitelist(ip);
+                    if (!config.removeFromWhitelist(ip)) {
+                        invocation.source().sendMessage(Component.text(ip + " is not a valid IP address or CIDR range!")
+                            .color(NamedTextColor.RED));
+                        break;
+                    }
                     invocation.source().sendMessage(Component.text("IP " + ip + " removed from whitelist!")
                         .color(NamedTextColor.GREEN));
                     break;
@@ -133,55 +208,241 @@ public class VelocityShield {
 
     @Subscribe
     public void onProxyShutdown(ProxyShutdownEvent event) {
+        if (metricsExporter != null) {
+            metricsExporter.shutdown();
+        }
+        if (cacheWarmer != null) {
+            cacheWarmer.shutdown();
+        }
         if (vpnChecker != null) {
             vpnChecker.shutdown();
         }
+        if (config != null) {
+            config.shutdown();
+        }
         logger.info("VelocityShield has been disabled!");
     }
 
+    /**
+     * Runs before authentication. IPs already known to be VPNs are refused here so the proxy skips the
+     * Mojang session check and encryption for them; for unknown IPs the lookup is started so it overlaps
+     * with authentication and {@link #onPlayerLogin} usually finds the answer cached or in flight.
+     */
+    @Subscribe
+    public void onPreLogin(PreLoginEvent event) {
+        if (!event.getResult().isAllowed()) {
+            return;
+        }
+        String ip = event.getConnection().getRemoteAddress().getAddress().getHostAddress();
+        ConfigSnapshot settings = config.getSnapshot();
+        if (settings.isIPWhitelisted(ip)) {
+            return;
+        }
+
+        // Not counted, so each login shows up once in the cache statistics: by checkLocal below if it is
+        // refused here, by the login check otherwise
+        Boolean known = vpnChecker.peekLocal(ip);
+        if (known == null) {
+            // Only warms the cache: the login check makes the decision, and in overload mode it is the one
+            // that answers unknown IPs locally
+            vpnChecker.prefetch(ip);
+            return;
+        }
+        // The username is not authenticated yet, but a spoofed one only defers the decision to the login check
+        if (known && settings.isEarlyRejection() && !bypassUsernames.contains(event.getUsername().toLowerCase(Locale.ROOT))
+                && Boolean.TRUE.equals(vpnChecker.checkLocal(ip))) {
+            if (settings.isEnableDebug()) {
+                logger.info("Known VPN IP {} rejected before login (username {})", ip, event.getUsername());
+            }
+            config.logVPNDetection(event.getUsername(), ip);
+            vpnMitigations.incrementAndGet();
+            loginsRejectedEarly.increment();
+            event.setResult(PreLoginEvent.PreLoginComponentResult.denied(buildKickMessage(settings)));
+        }
+    }
+
     @Subscribe
-    public void onPlayerLogin(LoginEvent event) {
+    public EventTask onPlayerLogin(LoginEvent event) {
         String ip = event.getPlayer().getRemoteAddress().getAddress().getHostAddress();
+        // Read once so the whole decision, including the async part, sees one consistent config
+        ConfigSnapshot settings = config.getSnapshot();
         
+        String username = event.getPlayer().getUsername().toLowerCase(Locale.ROOT);
         if (event.getPlayer().hasPermission("velocityshield.bypass")) {
-            if (config.isEnableDebug()) {
+            loginsBypassed.increment();
+            if (bypassUsernames.add(username)) {
+                saveBypassUsernames();
+            }
+            if (settings.isEnableDebug()) {
                 logger.info("Player {} has bypass permission, skipping VPN check", event.getPlayer().getUsername());
             }
-            return;
+            return null;
+        }
+        if (bypassUsernames.remove(username)) {
+            saveBypassUsernames();
         }
         
-        if (config.isIPWhitelisted(ip)) {
-            if (config.isEnableDebug()) {
-                logger.info("IP {} is whitelisted, skipping VPN check", ip);
+        // Resume the event once the decision completes instead of parking an event thread on join()
+        return EventTask.resumeWhenComplete(loginGate.check(settings, event.getPlayer().getUsername(), ip).thenAccept(outcome -> {
+            if (outcome == LoginGate.Outcome.BLOCKED) {
+                vpnMitigations.incrementAndGet();
+                event.setResult(LoginEvent.ComponentResult.denied(buildKickMessage(settings)));
             }
+        }));
+    }
+
+    private void loadBypassUsernames() {
+        if (!Files.exists(bypassUsernamesPath)) {
             return;
         }
+        try {
+            for (String line : Files.readAllLines(bypassUsernamesPath)) {
+                if (!line.isBlank()) {
+                    bypassUsernames.add(line.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to load bypass players", e);
+        }
+    }
+
+    // Rare (a name is added or removed), so the whole file is simply rewritten
+    private synchronized void saveBypassUsernames() {
+        try {
+            Files.write(bypassUsernamesPath, new ArrayList<>(bypassUsernames));
+        } catch (IOException e) {
+            logger.error("Failed to save bypass players", e);
+        }
+    }
 
-        if (config.isEnableDebug()) {
-            logger.info("Player {} connecting from IP: {}", event.getPlayer().getUsername(), ip);
+    private List<String> getOnlineIps() {
+        List<String> ips = new ArrayList<>();
+        for (Player player : server.getAllPlayers()) {
+            ips.add(player.getRemoteAddress().getAddress().getHostAddress());
         }
-        
-        boolean isVPN = vpnChecker.isVPN(ip).join();
-        if (isVPN) {
-            if (config.isEnableDebug()) {
-                logger.info("VPN detected for player {} (IP: {})", event.getPlayer().getUsername(), ip);
+        return ips;
+    }
+
+    private Component buildKickMessage(ConfigSnapshot settings) {
+        return Component.text()
+            .append(miniMessage.deserialize(settings.getKickMessageTitle()))
+            .append(Component.newline())
+            .append(Component.newline())
+            .append(miniMessage.deserialize(settings.getKickMessageBody()))
+            .build();
+    }
+
+    /**
+     * @return whether the source has the permission; if not it has been told so
+     */
+    private static boolean checkPermission(CommandSource source, String permission) {
+        if (source.hasPermission(permission)) {
+            return true;
+        }
+        source.sendMessage(Component.text("You don't have permission to use this command!")
+            .color(NamedTextColor.RED));
+        return false;
+    }
+
+    private void importRanges(CommandSource source, String fileName) {
+        Path csv = dataDirectory.resolve(fileName).normalize();
+        if (!csv.startsWith(dataDirectory.normalize()) || !Files.isRegularFile(csv)) {
+            source.sendMessage(Component.text("File " + fileName + " not found in the plugin folder!")
+                .color(NamedTextColor.RED));
+            return;
+        }
+        source.sendMessage(Component.text("Importing ranges from " + fileName + "...").color(NamedTextColor.YELLOW));
+        server.getScheduler().buildTask(this, () -> {
+            try {
+                int[] result = RangeDatabase.convert(csv, vpnChecker.getRangeDatabasePath());
+                vpnChecker.reloadRangeDatabase();
+                source.sendMessage(Component.text("Imported " + result[0] + " ranges (" + result[1] + " invalid lines skipped)")
+                    .color(NamedTextColor.GREEN));
+            } catch (IOException e) {
+                logger.error("Failed to import ranges from " + csv, e);
+                source.sendMessage(Component.text("Failed to import ranges: " + e.getMessage())
+                    .color(NamedTextColor.RED));
             }
-            config.logVPNDetection(event.getPlayer().getUsername(), ip);
-            vpnMitigations.incrementAndGet();
-            
-            Component kickMessage = Component.text()
-                .append(miniMessage.deserialize(config.getKickMessageTitle()))
-                .append(Component.newline())
-                .append(Component.newline())
-                .append(miniMessage.deserialize(config.getKickMessageBody()))
+        }).schedule();
+    }
+
+    private void sendProviderStatus(CommandSource source) {
+        source.sendMessage(Component.text("VelocityShield provider status:").color(NamedTextColor.GOLD));
+        for (VpnProvider provider : vpnChecker.getProviders()) {
+            CircuitBreaker breaker = provider.getCircuitBreaker();
+            CircuitBreaker.State state = breaker.getState();
+            NamedTextColor stateColor = state == CircuitBreaker.State.CLOSED ? NamedTextColor.GREEN
+                : state == CircuitBreaker.State.OPEN ? NamedTextColor.RED : NamedTextColor.YELLOW;
+            long p99 = provider.getLatency().percentileMicros(99, 1);
+
+            Component line = Component.text()
+                .append(Component.text(provider.getName() + ": ").color(NamedTextColor.GRAY))
+                .append(Component.text(state.name()).color(stateColor))
+                .append(Component.text(state == CircuitBreaker.State.OPEN
+                    ? " (" + breaker.getRemainingOpenSeconds() + "s left)" : "").color(NamedTextColor.GRAY))
+                .append(Component.text(String.format(" | failures %.0f%% | slow %.0f%% | p99 %s | timeout %dms | tokens %.1f",
+                    breaker.getFailureRate(),
+                    breaker.getSlowCallRate(),
+                    p99 < 0 ? "n/a" : (p99 / 1000) + "ms",
+                    provider.getCurrentTimeout().toMillis(),
+                    provider.getRateLimiter().getAvailableTokens())).color(NamedTextColor.GRAY))
                 .build();
-            
-            event.setResult(LoginEvent.ComponentResult.denied(kickMessage));
-        } else if (config.isEnableDebug()) {
-            logger.info("No VPN detected for player {} (IP: {})", event.getPlayer().getUsername(), ip);
+            source.sendMessage(line);
+        }
+
+        RangeDatabase database = vpnChecker.getRangeDatabase();
+        source.sendMessage(Component.text(database == null
+            ? "local ranges: not loaded"
+            : "local ranges: " + database.size() + " ranges | " + vpnChecker.getRangeDatabaseHits() + " hits")
+            .color(NamedTextColor.GRAY));
+    }
+
+    private void sendStats(CommandSource source) {
+        IPCache cache = vpnChecker.getCache();
+        long hits = cache.getHitCount();
+        long lookups = hits + cache.getMissCount();
+        long loginP50 = loginGate.getCheckLatency().percentileMicros(50, 1);
+        long loginP99 = loginGate.getCheckLatency().percentileMicros(99, 1);
+        long remoteP99 = vpnChecker.getLookupLatency().percentileMicros(99, 1);
+
+        source.sendMessage(Component.text("VelocityShield stats:").color(NamedTextColor.GOLD));
+        source.sendMessage(Component.text(String.format("logins: %d allowed | %d blocked | %d rejected before login | %d bypassed | %d whitelisted | p50 %s | p99 %s",
+            loginGate.getAllowedCount(), loginGate.getBlockedCount(), loginsRejectedEarly.sum(), loginsBypassed.sum(), loginGate.getWhitelistedCount(),
+            formatMicros(loginP50), formatMicros(loginP99))).color(NamedTextColor.GRAY));
+        source.sendMessage(Component.text(String.format("cache: %d entries | hit ratio %s | %d stale | %d prefix | %d evicted",
+            cache.size(),
+            lookups == 0 ? "n/a" : String.format("%.1f%%", hits * 100.0 / lookups),
+            vpnChecker.getStaleCacheHits(), vpnChecker.getPrefixCacheHits(), cache.getEvictionCount())).color(NamedTextColor.GRAY));
+        source.sendMessage(Component.text(String.format("lookups: %d remote | %d failed | %d coalesced | %d hedged | %d in flight | p99 %s",
+            vpnChecker.getRemoteLookups(), vpnChecker.getFailedLookups(), vpnChecker.getCoalescedRequests(),
+            vpnChecker.getHedgedRequests(), vpnChecker.getInFlightCount(), formatMicros(remoteP99))).color(NamedTextColor.GRAY));
+        source.sendMessage(Component.text(String.format("executor: %s | %d/%d lookups | %d saturated | %d active | %d queued | detection log: %d queued | %d dropped",
+            vpnChecker.isUsingVirtualThreads() ? "virtual threads" : "thread pool", vpnChecker.getActiveLookups(),
+            vpnChecker.getMaxConcurrentLookups(), vpnChecker.getSaturatedLookups(),
+            vpnChecker.getExecutorActiveCount(), vpnChecker.getExecutorQueueSize(),
+            config.getDetectionLog().getQueuedCount(), config.getDetectionLog().getDroppedCount())).color(NamedTextColor.GRAY));
+        OverloadController overload = vpnChecker.getOverloadController();
+        source.sendMessage(Component.text(String.format("overload: %s | %d pending | %dms avg lookup | %d mode changes | %d unknown IPs answered | %d priority lookups",
+            overload.isDegraded() ? "DEGRADED" : "normal", overload.getLastPending(), overload.getLastLatencyMs(),
+            overload.getModeChanges(), overload.getDegradedVerdicts(), overload.getPriorityLookups()))
+            .color(overload.isDegraded() ? NamedTextColor.RED : NamedTextColor.GRAY));
+        for (VpnProvider provider : vpnChecker.getProviders()) {
+            TokenBucket limiter = provider.getRateLimiter();
+            long timeouts = provider.getTimeoutCount();
+            source.sendMessage(Component.text(String.format("%s: %d answered | %d timed out | %d errors | p99 %s | rate limit %d delayed (%dms total) | %d rejected",
+                provider.getName(), provider.getLatency().getCount() - timeouts, timeouts, provider.getErrorCount(),
+                formatMicros(provider.getLatency().percentileMicros(99, 1)), limiter.getDelayedPermits(),
+                TimeUnit.NANOSECONDS.toMillis(limiter.getWaitNanos()), limiter.getRejectedPermits())).color(NamedTextColor.GRAY));
         }
     }
 
+    private static String formatMicros(long micros) {
+        if (micros < 0) {
+            return "n/a";
+        }
+        return micros < 1000 ? micros + "us" : (micros / 1000) + "ms";
+    }
+
     public static VelocityShield getInstance() {
         return instance;
     }
@@ -201,4 +462,36 @@ public class VelocityShield {
     public PluginConfig getConfig() {
         return config;
     }
+
+    public VPNChecker getVpnChecker() {
+        return vpnChecker;
+    }
+
+    public CacheWarmer getCacheWarmer() {
+        return cacheWarmer;
+    }
+
+    public long getLoginsAllowed() {
+        return loginGate.getAllowedCount();
+    }
+
+    public long getLoginsBlocked() {
+        return loginGate.getBlockedCount();
+    }
+
+    public long getLoginsRejectedEarly() {
+        return loginsRejectedEarly.sum();
+    }
+
+    public long getLoginsBypassed() {
+        return loginsBypassed.sum();
+    }
+
+    public long getLoginsWhitelisted() {
+        return loginGate.getWhitelistedCount();
+    }
+
+    public LatencyHistogram getLoginCheckLatency() {
+        return loginGate.getCheckLatency();
+    }
 } 
\ No newline at end of file
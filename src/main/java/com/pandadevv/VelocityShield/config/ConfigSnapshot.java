@@ -0,0 +1,384 @@
+package com.pandadevv.VelocityShield.config;
+
+import com.pandadevv.VelocityShield.util.CidrTrie;
+import com.pandadevv.VelocityShield.util.IPAddressUtil;
+import com.pandadevv.VelocityShield.util.IPCache;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One immutable view of the configuration and whitelist. {@link PluginConfig} builds a new snapshot on every
+ * reload or whitelist edit and swaps it in as a whole, so a login reads one snapshot and sees consistent
+ * values throughout its check without taking any locks.
+ */
+public final class ConfigSnapshot {
+    // Parsed config.yml, kept so a whitelist edit can build the next snapshot from the same values
+    private final Map<String, Object> values;
+    // Canonical whitelist entries in file order, and the trie built from them
+    private final Set<String> whitelistEntries;
+    private final CidrTrie whitelist;
+    private final String proxycheckApiKey;
+    private final String kickMessageTitle;
+    private final String kickMessageBody;
+    private final boolean useProxycheckAsPrimary;
+    private final boolean enableFallbackService;
+    private final boolean allowJoinOnApiFailure;
+    private final boolean earlyRejection;
+    private final boolean enableCache;
+    private final boolean enableDebug;
+    private final long cacheVpnDuration;
+    private final long cacheCleanDuration;
+    private final long cacheStaleGrace;
+    private final boolean enablePrefixCache;
+    private final int prefixCacheIpv4Length;
+    private final int prefixCacheIpv6Length;
+    private final int prefixCacheMinAgreeing;
+    private final String cacheTimeUnit;
+    private final int cacheMaxSize;
+    private final long proxycheckBatchWindowMs;
+    private final int proxycheckBatchSize;
+    private final double proxycheckRequestsPerSecond;
+    private final double ipApiRequestsPerSecond;
+    private final boolean enableHedgedRequests;
+    private final double hedgePercentile;
+    private final long hedgeMinDelayMs;
+    private final double circuitBreakerFailureRate;
+    private final double circuitBreakerSlowCallRate;
+    private final long circuitBreakerSlowCallMs;
+    private final long circuitBreakerOpenSeconds;
+    private final boolean adaptiveTimeouts;
+    private final long minTimeoutMs;
+    private final long maxTimeoutMs;
+    private final boolean enableRangeDatabase;
+    private final String rangeDatabaseFile;
+    private final String lookupExecutor;
+    private final int lookupThreads;
+    private final int maxConcurrentLookups;
+    private final boolean lookupSaturationFailOpen;
+    private final boolean enableCacheWarmup;
+    private final int warmupIpsPerSecond;
+    private final int warmupTopIps;
+    private final long warmupMaxAgeDays;
+    private final boolean enableOverloadProtection;
+    private final int overloadPendingLookups;
+    private final long overloadLatencyMs;
+    private final int overloadRecoverSeconds;
+    private final boolean overloadUnknownAllow;
+    private final long detectionLogMaxSizeMb;
+    private final int detectionLogMaxFiles;
+    private final int metricsPort;
+    private final String metricsBindAddress;
+    private final long metricsFileInterval;
+
+    /**
+     * @param values           parsed config.yml; missing keys take their defaults
+     * @param whitelistEntries canonical whitelist entries (see {@link PluginConfig})
+     */
+    @SuppressWarnings("unchecked")
+    ConfigSnapshot(Map<String, Object> values, Set<String> whitelistEntries) {
+        this.values = values;
+        this.whitelistEntries = Collections.unmodifiableSet(new LinkedHashSet<>(whitelistEntries));
+        CidrTrie trie = new CidrTrie();
+        for (String entry : this.whitelistEntries) {
+            long[] range = IPAddressUtil.parseCidr(entry);
+            trie.add(range[0], range[1], (int) range[2]);
+        }
+        this.whitelist = trie;
+
+        this.proxycheckApiKey = (String) values.getOrDefault("proxycheck-api-key", "YOUR_PROXYCHECK_API_KEY");
+        
+        // Load kick message
+        Map<String, Object> kickMessage = (Map<String, Object>) values.getOrDefault("kick-message", Map.of());
+        this.kickMessageTitle = (String) kickMessage.getOrDefault("title", "<red><bold>VPN Detected!</bold></red>");
+        this.kickMessageBody = (String) kickMessage.getOrDefault("message", 
+            "<white>Please join without a VPN.</white>\n<white>If this is a false positive, please open a ticket.</white>");
+        
+        this.useProxycheckAsPrimary = (Boolean) values.getOrDefault("use-proxycheck-as-primary", true);
+        this.enableFallbackService = (Boolean) values.getOrDefault("enable-fallback-service", true);
+        this.allowJoinOnApiFailure = (Boolean) values.getOrDefault("allow-join-on-api-failure", true);
+        this.earlyRejection = (Boolean) values.getOrDefault("early-rejection", false);
+        this.enableCache = (Boolean) values.getOrDefault("enable-cache", true);
+        this.enableDebug = (Boolean) values.getOrDefault("enable-debug", false);
+        // cache-duration is the single TTL from older configs, used for whichever split TTL is missing
+        Number cacheDuration = (Number) values.getOrDefault("cache-duration", 10);
+        this.cacheVpnDuration = Math.max(0, ((Number) values.getOrDefault("cache-vpn-duration", cacheDuration)).longValue());
+        this.cacheCleanDuration = Math.max(0, ((Number) values.getOrDefault("cache-clean-duration", cacheDuration)).longValue());
+        this.cacheStaleGrace = Math.max(0, ((Number) values.getOrDefault("cache-stale-grace", 60)).longValue());
+        this.enablePrefixCache = (Boolean) values.getOrDefault("enable-prefix-cache", false);
+        this.prefixCacheIpv4Length = Math.min(32, Math.max(8, ((Number) values.getOrDefault("prefix-cache-ipv4-length", 24)).intValue()));
+        this.prefixCacheIpv6Length = Math.min(128, Math.max(16, ((Number) values.getOrDefault("prefix-cache-ipv6-length", 64)).intValue()));
+        this.prefixCacheMinAgreeing = Math.min(IPCache.MAX_AGREEING, Math.max(1, ((Number) values.getOrDefault("prefix-cache-min-agreeing", 3)).intValue()));
+        this.cacheTimeUnit = (String) values.getOrDefault("cache-time-unit", "SECONDS");
+        this.cacheMaxSize = Math.max(1, ((Number) values.getOrDefault("cache-max-size", 100000)).intValue());
+        this.proxycheckBatchWindowMs = Math.max(0, ((Number) values.getOrDefault("proxycheck-batch-window-ms", 10)).longValue());
+        this.proxycheckBatchSize = Math.max(1, ((Number) values.getOrDefault("proxycheck-batch-size", 50)).intValue());
+        this.proxycheckRequestsPerSecond = Math.max(0.01, ((Number) values.getOrDefault("proxycheck-requests-per-second", 10)).doubleValue());
+        this.ipApiRequestsPerSecond = Math.max(0.01, ((Number) values.getOrDefault("ip-api-requests-per-second", 0.75)).doubleValue());
+        this.enableHedgedRequests = (Boolean) values.getOrDefault("enable-hedged-requests", true);
+        this.hedgePercentile = Math.min(100, Math.max(1, ((Number) values.getOrDefault("hedge-percentile", 95)).doubleValue()));
+        this.hedgeMinDelayMs = Math.max(0, ((Number) values.getOrDefault("hedge-min-delay-ms", 100)).longValue());
+        this.circuitBreakerFailureRate = ((Number) values.getOrDefault("circuit-breaker-failure-rate", 50)).doubleValue();
+        this.circuitBreakerSlowCallRate = ((Number) values.getOrDefault("circuit-breaker-slow-call-rate", 80)).doubleValue();
+        this.circuitBreakerSlowCallMs = ((Number) values.getOrDefault("circuit-breaker-slow-call-ms", 2000)).longValue();
+        this.circuitBreakerOpenSeconds = Math.max(1, ((Number) values.getOrDefault("circuit-breaker-open-seconds", 30)).longValue());
+        this.adaptiveTimeouts = (Boolean) values.getOrDefault("adaptive-timeouts", true);
+        this.maxTimeoutMs = Math.max(100, ((Number) values.getOrDefault("max-timeout-ms", 3000)).longValue());
+        this.minTimeoutMs = Math.min(maxTimeoutMs, Math.max(50, ((Number) values.getOrDefault("min-timeout-ms", 500)).longValue()));
+        this.enableRangeDatabase = (Boolean) values.getOrDefault("enable-range-database", true);
+        this.rangeDatabaseFile = (String) values.getOrDefault("range-database-file", "ranges.bin");
+        this.lookupExecutor = (String) values.getOrDefault("lookup-executor", "auto");
+        this.lookupThreads = Math.max(1, ((Number) values.getOrDefault("lookup-threads", 4)).intValue());
+        this.maxConcurrentLookups = Math.max(1, ((Number) values.getOrDefault("max-concurrent-lookups", 500)).intValue());
+        this.lookupSaturationFailOpen = !"fail-closed".equalsIgnoreCase((String) values.getOrDefault("lookup-saturation-policy", "fail-open"));
+        this.enableCacheWarmup = (Boolean) values.getOrDefault("enable-cache-warmup", true);
+        this.warmupIpsPerSecond = Math.max(1, ((Number) values.getOrDefault("warmup-ips-per-second", 20)).intValue());
+        this.warmupTopIps = Math.max(0, ((Number) values.getOrDefault("warmup-top-ips", 1000)).intValue());
+        this.warmupMaxAgeDays = Math.max(1, ((Number) values.getOrDefault("warmup-max-age-days", 7)).longValue());
+        this.enableOverloadProtection = (Boolean) values.getOrDefault("enable-overload-protection", true);
+        this.overloadPendingLookups = Math.max(2, ((Number) values.getOrDefault("overload-pending-lookups", 200)).intValue());
+        this.overloadLatencyMs = Math.max(2, ((Number) values.getOrDefault("overload-latency-ms", 5000)).longValue());
+        this.overloadRecoverSeconds = Math.max(1, ((Number) values.getOrDefault("overload-recover-seconds", 30)).intValue());
+        this.overloadUnknownAllow = !"block".equalsIgnoreCase((String) values.getOrDefault("overload-unknown-verdict", "allow"));
+        this.detectionLogMaxSizeMb = Math.max(1, ((Number) values.getOrDefault("detection-log-max-size-mb", 10)).longValue());
+        this.detectionLogMaxFiles = Math.max(0, ((Number) values.getOrDefault("detection-log-max-files", 10)).intValue());
+        this.metricsPort = Math.min(65535, Math.max(0, ((Number) values.getOrDefault("metrics-port", 0)).intValue()));
+        this.metricsBindAddress = (String) values.getOrDefault("metrics-bind-address", "127.0.0.1");
+        this.metricsFileInterval = Math.max(0, ((Number) values.getOrDefault("metrics-file-interval", 0)).longValue());
+    }
+
+    /**
+     * @return a snapshot with the same settings and a different whitelist
+     */
+    ConfigSnapshot withWhitelist(Set<String> whitelistEntries) {
+        return new ConfigSnapshot(values, whitelistEntries);
+    }
+
+    public boolean isIPWhitelisted(String ip) {
+        return whitelist.contains(ip);
+    }
+
+    Map<String, Object> getValues() {
+        return values;
+    }
+
+    public Set<String> getWhitelistEntries() {
+        return whitelistEntries;
+    }
+
+    public long getDetectionLogMaxSizeMb() {
+        return detectionLogMaxSizeMb;
+    }
+
+    public int getDetectionLogMaxFiles() {
+        return detectionLogMaxFiles;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public String getMetricsBindAddress() {
+        return metricsBindAddress;
+    }
+
+    public long getMetricsFileInterval() {
+        return metricsFileInterval;
+    }
+
+    public String getProxycheckApiKey() {
+        return proxycheckApiKey;
+    }
+
+    public String getKickMessageTitle() {
+        return kickMessageTitle;
+    }
+
+    public String getKickMessageBody() {
+        return kickMessageBody;
+    }
+
+    public boolean isUseProxycheckAsPrimary() {
+        return useProxycheckAsPrimary;
+    }
+
+    public boolean isEnableFallbackService() {
+        return enableFallbackService;
+    }
+
+    public boolean isAllowJoinOnApiFailure() {
+        return allowJoinOnApiFailure;
+    }
+
+    public boolean isEarlyRejection() {
+        return earlyRejection;
+    }
+
+    public boolean isEnableCache() {
+        return enableCache;
+    }
+
+    public boolean isEnableDebug() {
+        return enableDebug;
+    }
+
+    public long getCacheVpnDuration() {
+        return cacheVpnDuration;
+    }
+
+    public long getCacheCleanDuration() {
+        return cacheCleanDuration;
+    }
+
+    public long getCacheStaleGrace() {
+        return cacheStaleGrace;
+    }
+
+    public boolean isEnablePrefixCache() {
+        return enablePrefixCache;
+    }
+
+    public int getPrefixCacheIpv4Length() {
+        return prefixCacheIpv4Length;
+    }
+
+    public int getPrefixCacheIpv6Length() {
+        return prefixCacheIpv6Length;
+    }
+
+    public int getPrefixCacheMinAgreeing() {
+        return prefixCacheMinAgreeing;
+    }
+
+    public String getCacheTimeUnit() {
+        return cacheTimeUnit;
+    }
+
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public long getProxycheckBatchWindowMs() {
+        return proxycheckBatchWindowMs;
+    }
+
+    public int getProxycheckBatchSize() {
+        return proxycheckBatchSize;
+    }
+
+    public double getProxycheckRequestsPerSecond() {
+        return proxycheckRequestsPerSecond;
+    }
+
+    public double getIpApiRequestsPerSecond() {
+        return ipApiRequestsPerSecond;
+    }
+
+    public boolean isEnableHedgedRequests() {
+        return enableHedgedRequests;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public long getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    public double getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    public double getCircuitBreakerSlowCallRate() {
+        return circuitBreakerSlowCallRate;
+    }
+
+    public long getCircuitBreakerSlowCallMs() {
+        return circuitBreakerSlowCallMs;
+    }
+
+    public long getCircuitBreakerOpenSeconds() {
+        return circuitBreakerOpenSeconds;
+    }
+
+    public boolean isAdaptiveTimeouts() {
+        return adaptiveTimeouts;
+    }
+
+    public long getMinTimeoutMs() {
+        return minTimeoutMs;
+    }
+
+    public long getMaxTimeoutMs() {
+        return maxTimeoutMs;
+    }
+
+    public boolean isEnableRangeDatabase() {
+        return enableRangeDatabase;
+    }
+
+    public String getRangeDatabaseFile() {
+        return rangeDatabaseFile;
+    }
+
+    public String getLookupExecutor() {
+        return lookupExecutor;
+    }
+
+    public int getLookupThreads() {
+        return lookupThreads;
+    }
+
+    public int getMaxConcurrentLookups() {
+        return maxConcurrentLookups;
+    }
+
+    /**
+     * @return whether a new IP is let through (true) or kicked (false) while max-concurrent-lookups are running
+     */
+    public boolean isLookupSaturationFailOpen() {
+        return lookupSaturationFailOpen;
+    }
+
+    public boolean isEnableCacheWarmup() {
+        return enableCacheWarmup;
+    }
+
+    public int getWarmupIpsPerSecond() {
+        return warmupIpsPerSecond;
+    }
+
+    public int getWarmupTopIps() {
+        return warmupTopIps;
+    }
+
+    public long getWarmupMaxAgeDays() {
+        return warmupMaxAgeDays;
+    }
+
+    public boolean isEnableOverloadProtection() {
+        return enableOverloadProtection;
+    }
+
+    public int getOverloadPendingLookups() {
+        return overloadPendingLookups;
+    }
+
+    public long getOverloadLatencyMs() {
+        return overloadLatencyMs;
+    }
+
+    public int getOverloadRecoverSeconds() {
+        return overloadRecoverSeconds;
+    }
+
+    /**
+     * @return whether unknown IPs are let through (true) or kicked (false) while overload protection is active
+     */
+    public boolean isOverloadUnknownAllow() {
+        return overloadUnknownAllow;
+    }
+}
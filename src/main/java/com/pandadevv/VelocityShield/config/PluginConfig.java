@@ -1,14 +1,16 @@
 package com.pandadevv.VelocityShield.config;
 
 import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.util.DetectionLogWriter;
+import com.pandadevv.VelocityShield.util.IPAddressUtil;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -16,18 +18,9 @@ public class PluginConfig {
     private final Path configPath;
     private final Path whitelistPath;
     private final Path logPath;
-    private String proxycheckApiKey;
-    private String kickMessageTitle;
-    private String kickMessageBody;
-    private boolean useProxycheckAsPrimary;
-    private boolean enableFallbackService;
-    private boolean allowJoinOnApiFailure;
-    private boolean enableCache;
-    private boolean enableDebug;
-    private Set<String> whitelistedIps;
-    private long cacheDuration;
-    private String cacheTimeUnit;
-    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Current settings and whitelist, replaced as a whole by reloads and whitelist edits
+    private volatile ConfigSnapshot snapshot;
+    private final DetectionLogWriter detectionLog;
 
     public PluginConfig(Path dataDirectory) {
         this.configPath = dataDirectory.resolve("config.yml");
@@ -38,17 +31,48 @@ public class PluginConfig {
         } catch (IOException e) {
             VelocityShield.getInstance().getLogger().error("Failed to create plugin directory", e);
         }
-        loadConfig();
-        loadWhitelist();
+        reload();
+        this.detectionLog = new DetectionLogWriter(logPath,
+            () -> snapshot.getDetectionLogMaxSizeMb() * 1024 * 1024, () -> snapshot.getDetectionLogMaxFiles());
+    }
+
+    /**
+     * @return the current settings and whitelist; read it once per decision so every value comes from the same version
+     */
+    public ConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Re-reads config.yml and the whitelist and swaps both in at once. If config.yml cannot be read the
+     * previous settings are kept (or the defaults, on first load).
+     */
+    public synchronized void reload() {
+        Map<String, Object> values = loadConfig();
+        if (values == null) {
+            values = snapshot != null ? snapshot.getValues() : Map.of();
+        }
+        ConfigSnapshot next = new ConfigSnapshot(values, loadWhitelist());
+        if (next.getProxycheckApiKey().equals("YOUR_PROXYCHECK_API_KEY") && next.isUseProxycheckAsPrimary()) {
+            VelocityShield.getInstance().getLogger().warn("===============================================");
+            VelocityShield.getInstance().getLogger().warn("VelocityShield is not configured!");
+            VelocityShield.getInstance().getLogger().warn("Please set your proxycheck.io API key in config.yml");
+            VelocityShield.getInstance().getLogger().warn("Get your API key at: https://proxycheck.io/");
+            VelocityShield.getInstance().getLogger().warn("===============================================");
+        }
+        snapshot = next;
     }
 
-    private void loadConfig() {
+    /**
+     * @return the parsed config.yml, or null if it could not be read
+     */
+    private Map<String, Object> loadConfig() {
         try {
             String defaultConfigContent;
             try (InputStream in = getClass().getResourceAsStream("/config.yml")) {
                 if (in == null) {
                     VelocityShield.getInstance().getLogger().error("Could not find default config.yml in resources");
-                    return;
+                    return null;
                 }
                 defaultConfigContent = new String(in.readAllBytes());
             }
@@ -64,44 +88,17 @@ public class PluginConfig {
                 currentConfig = yaml.load(currentConfigContent);
             } catch (Exception e) {
                 VelocityShield.getInstance().getLogger().error("Failed to parse config", e);
-                return;
+                return null;
             }
-
-            loadValuesFromConfig(currentConfig);
+            return currentConfig != null ? currentConfig : Map.of();
         } catch (IOException e) {
             VelocityShield.getInstance().getLogger().error("Failed to load config", e);
+            return null;
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadValuesFromConfig(Map<String, Object> config) {
-        this.proxycheckApiKey = (String) config.getOrDefault("proxycheck-api-key", "YOUR_PROXYCHECK_API_KEY");
-        
-        // Load kick message
-        Map<String, Object> kickMessage = (Map<String, Object>) config.getOrDefault("kick-message", Map.of());
-        this.kickMessageTitle = (String) kickMessage.getOrDefault("title", "<red><bold>VPN Detected!</bold></red>");
-        this.kickMessageBody = (String) kickMessage.getOrDefault("message", 
-            "<white>Please join without a VPN.</white>\n<white>If this is a false positive, please open a ticket.</white>");
-        
-        this.useProxycheckAsPrimary = (Boolean) config.getOrDefault("use-proxycheck-as-primary", true);
-        this.enableFallbackService = (Boolean) config.getOrDefault("enable-fallback-service", true);
-        this.allowJoinOnApiFailure = (Boolean) config.getOrDefault("allow-join-on-api-failure", true);
-        this.enableCache = (Boolean) config.getOrDefault("enable-cache", true);
-        this.enableDebug = (Boolean) config.getOrDefault("enable-debug", false);
-        this.cacheDuration = ((Number) config.getOrDefault("cache-duration", 10)).longValue();
-        this.cacheTimeUnit = (String) config.getOrDefault("cache-time-unit", "SECONDS");
-        
-        if (this.proxycheckApiKey.equals("YOUR_PROXYCHECK_API_KEY") && this.useProxycheckAsPrimary) {
-            VelocityShield.getInstance().getLogger().warn("===============================================");
-            VelocityShield.getInstance().getLogger().warn("VelocityShield is not configured!");
-            VelocityShield.getInstance().getLogger().warn("Please set your proxycheck.io API key in config.yml");
-            VelocityShield.getInstance().getLogger().warn("Get your API key at: https://proxycheck.io/");
-            VelocityShield.getInstance().getLogger().warn("===============================================");
-        }
-    }
-
-    public void loadWhitelist() {
-        this.whitelistedIps = new HashSet<>();
+    private Set<String> loadWhitelist() {
+        Set<String> whitelistEntries = new LinkedHashSet<>();
         if (!Files.exists(whitelistPath)) {
             try {
                 Files.createFile(whitelistPath);
@@ -114,80 +111,55 @@ public class PluginConfig {
                 while ((line = reader.readLine()) != null) {
                     line = line.trim();
                     if (!line.isEmpty() && !line.startsWith("#")) {
-                        whitelistedIps.add(line);
+                        String entry = canonicalWhitelistEntry(line);
+                        if (entry == null) {
+                            VelocityShield.getInstance().getLogger().warn("Ignoring invalid whitelist entry: " + line);
+                        } else {
+                            whitelistEntries.add(entry);
+                        }
                     }
                 }
             } catch (IOException e) {
                 VelocityShield.getInstance().getLogger().error("Failed to load whitelist", e);
             }
         }
+        return whitelistEntries;
     }
 
-    public void logVPNDetection(String username, String ip) {
-        try {
-            String timestamp = LocalDateTime.now().format(DATE_FORMAT);
-            String logEntry = String.format("[%s] VPN detected - Username: %s, IP: %s%n", timestamp, username, ip);
-            
-            Files.write(logPath, logEntry.getBytes(), Files.exists(logPath) ? 
-                java.nio.file.StandardOpenOption.APPEND : 
-                java.nio.file.StandardOpenOption.CREATE);
-        } catch (IOException e) {
-            VelocityShield.getInstance().getLogger().error("Failed to write to log file", e);
-        }
+    /**
+     * @return the entry with host bits cleared and the address in canonical form, or null if invalid
+     */
+    private static String canonicalWhitelistEntry(String entry) {
+        long[] range = IPAddressUtil.parseCidr(entry.trim());
+        return range == null ? null : IPAddressUtil.formatCidr(range[0], range[1], (int) range[2]);
     }
 
-    public String getProxycheckApiKey() {
-        return proxycheckApiKey;
-    }
-
-    public String getKickMessageTitle() {
-        return kickMessageTitle;
-    }
-
-    public String getKickMessageBody() {
-        return kickMessageBody;
-    }
-
-    public boolean isUseProxycheckAsPrimary() {
-        return useProxycheckAsPrimary;
-    }
-
-    public boolean isEnableFallbackService() {
-        return enableFallbackService;
-    }
-
-    public boolean isAllowJoinOnApiFailure() {
-        return allowJoinOnApiFailure;
-    }
-
-    public boolean isEnableCache() {
-        return enableCache;
-    }
-
-    public boolean isEnableDebug() {
-        return enableDebug;
-    }
-
-    public boolean isIPWhitelisted(String ip) {
-        return whitelistedIps.contains(ip);
-    }
-
-    public void reloadWhitelist() {
-        loadWhitelist();
+    public void logVPNDetection(String username, String ip) {
+        detectionLog.logDetection(username, ip);
     }
 
-    public long getCacheDuration() {
-        return cacheDuration;
+    public DetectionLogWriter getDetectionLog() {
+        return detectionLog;
     }
 
-    public String getCacheTimeUnit() {
-        return cacheTimeUnit;
+    public void shutdown() {
+        detectionLog.shutdown();
     }
 
-    public void addToWhitelist(String ip) {
-        if (whitelistedIps.add(ip)) {
+    /**
+     * @param ip an IP address or CIDR range
+     * @return false if the entry is not a valid IP address or CIDR range
+     */
+    public synchronized boolean addToWhitelist(String ip) {
+        String entry = canonicalWhitelistEntry(ip);
+        if (entry == null) {
+            return false;
+        }
+        Set<String> entries = new LinkedHashSet<>(snapshot.getWhitelistEntries());
+        if (entries.add(entry)) {
+            snapshot = snapshot.withWhitelist(entries);
             try {
-                Files.write(whitelistPath, (ip + "\n").getBytes(), 
+                Files.write(whitelistPath, (entry + "\n").getBytes(), 
                     Files.exists(whitelistPath) ? 
                         java.nio.file.StandardOpenOption.APPEND : 
                         java.nio.file.StandardOpenOption.CREATE);
@@ -195,22 +167,33 @@ public class PluginConfig {
                 VelocityShield.getInstance().getLogger().error("Failed to add IP to whitelist: " + ip, e);
             }
         }
+        return true;
     }
 
-    public void removeFromWhitelist(String ip) {
-        if (whitelistedIps.remove(ip)) {
+    /**
+     * @param ip an IP address or CIDR range, matched against entries after canonicalization
+     * @return false if the entry is not a valid IP address or CIDR range
+     */
+    public synchronized boolean removeFromWhitelist(String ip) {
+        String entry = canonicalWhitelistEntry(ip);
+        if (entry == null) {
+            return false;
+        }
+        Set<String> entries = new LinkedHashSet<>(snapshot.getWhitelistEntries());
+        if (entries.remove(entry)) {
+            snapshot = snapshot.withWhitelist(entries);
             try {
-                Set<String> lines = new HashSet<>(Files.readAllLines(whitelistPath));
-                lines.remove(ip);
+                List<String> lines = new ArrayList<>();
+                for (String line : Files.readAllLines(whitelistPath)) {
+                    if (!entry.equals(canonicalWhitelistEntry(line))) {
+                        lines.add(line);
+                    }
+                }
                 Files.write(whitelistPath, lines);
             } catch (IOException e) {
                 VelocityShield.getInstance().getLogger().error("Failed to remove IP from whitelist: " + ip, e);
             }
         }
+        return true;
     }
-
-    public void reload() {
-        loadConfig();
-        loadWhitelist();
-    }
-} 
\ No newline at end of file
+}
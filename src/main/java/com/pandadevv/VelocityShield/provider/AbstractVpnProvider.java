@@ -0,0 +1,209 @@
+package com.pandadevv.VelocityShield.provider;
+
+import com.google.gson.stream.JsonReader;
+import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
+import com.pandadevv.VelocityShield.config.PluginConfig;
+import com.pandadevv.VelocityShield.util.CircuitBreaker;
+import com.pandadevv.VelocityShield.util.LatencyHistogram;
+import com.pandadevv.VelocityShield.util.TokenBucket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared plumbing for providers: rate limiter, circuit breaker, adaptive request timeouts,
+ * latency recording and error containment.
+ */
+public abstract class AbstractVpnProvider implements VpnProvider {
+    // Requests that would wait longer than this (seconds) for a rate-limit permit skip the service instead
+    static final long MAX_PERMIT_WAIT = 5;
+    static final String USER_AGENT = "VelocityShield/1.0";
+    // Recent samples needed before the timeout follows the observed p99
+    private static final long MIN_TIMEOUT_SAMPLES = 20;
+    private static final double TIMEOUT_P99_MULTIPLIER = 2.0;
+
+    protected final PluginConfig config;
+    private final String name;
+    private final HttpClient httpClient;
+    // Where work after a rate-limit permit runs, so it never runs on the limiter's timer thread
+    private final Executor executor;
+    private final TokenBucket rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    protected AbstractVpnProvider(String name, PluginConfig config, HttpClient httpClient, double requestsPerSecond) {
+        this.name = name;
+        this.config = config;
+        this.httpClient = httpClient;
+        this.executor = httpClient.executor().orElse(ForkJoinPool.commonPool());
+        this.rateLimiter = new TokenBucket(name, requestsPerSecond, (int) Math.ceil(requestsPerSecond));
+        ConfigSnapshot settings = config.getSnapshot();
+        this.circuitBreaker = new CircuitBreaker(
+            name,
+            settings.getCircuitBreakerFailureRate(),
+            settings.getCircuitBreakerSlowCallRate(),
+            settings.getCircuitBreakerSlowCallMs(),
+            settings.getCircuitBreakerOpenSeconds()
+        );
+    }
+
+    @Override
+    public final CompletableFuture<Boolean> check(String ip) {
+        // An open provider is skipped right away instead of waiting on a rate-limit permit or a timeout
+        if (circuitBreaker.isOpen()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Boolean> result;
+        try {
+            result = query(ip);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.handle((verdict, error) -> {
+            if (error != null) {
+                errors.increment();
+                Throwable cause = unwrap(error);
+                if (config.getSnapshot().isEnableDebug() && !(cause instanceof CircuitOpenException)) {
+                    VelocityShield.getInstance().getLogger().error("Error with " + name + " VPN check for IP: " + ip, error);
+                }
+                return null;
+            }
+            return verdict;
+        });
+    }
+
+    /**
+     * @return the verdict, or null when the service gave no usable answer; may complete exceptionally
+     */
+    protected abstract CompletableFuture<Boolean> query(String ip);
+
+    /**
+     * Sends a request through the circuit breaker with the current adaptive timeout. Error statuses and
+     * exceptions thrown by {@code parser} count as failed calls.
+     *
+     * @return the parsed body; fails with {@link CircuitOpenException} if the breaker turned the call away
+     */
+    <T> CompletableFuture<T> send(HttpRequest.Builder request, ResponseParser<T> parser) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            return CompletableFuture.failedFuture(new CircuitOpenException(name));
+        }
+        long start = System.nanoTime();
+        Duration timeout = getCurrentTimeout();
+        CompletableFuture<T> result;
+        try {
+            result = httpClient.sendAsync(request.timeout(timeout).header("User-Agent", USER_AGENT).build(),
+                BufferedBodySubscriber.HANDLER).thenApply(response -> {
+                    if (response.statusCode() >= 400) {
+                        throw new IllegalStateException(name + " responded with HTTP " + response.statusCode());
+                    }
+                    try (JsonReader reader = new JsonReader(response.body())) {
+                        return parser.parse(reader);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((parsed, error) -> {
+            long duration = System.nanoTime() - start;
+            circuitBreaker.onResult(error != null, duration);
+            if (error == null) {
+                latency.recordNanos(duration);
+            } else if (unwrap(error) instanceof HttpTimeoutException) {
+                timeouts.increment();
+                // The real response time is at least the timeout; without this sample a service that slowed
+                // past the current timeout would never raise the p99, and the timeout would stay too tight
+                latency.recordNanos(Math.max(duration, timeout.toNanos()));
+            }
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * @return the request timeout, following twice the recent p99 latency within the configured bounds
+     */
+    @Override
+    public Duration getCurrentTimeout() {
+        ConfigSnapshot settings = config.getSnapshot();
+        long maxMillis = settings.getMaxTimeoutMs();
+        if (!settings.isAdaptiveTimeouts()) {
+            return Duration.ofMillis(maxMillis);
+        }
+        long p99 = latency.percentileMicros(99, MIN_TIMEOUT_SAMPLES);
+        if (p99 < 0) {
+            return Duration.ofMillis(maxMillis);
+        }
+        long adaptive = (long) (TimeUnit.MICROSECONDS.toMillis(p99) * TIMEOUT_P99_MULTIPLIER);
+        return Duration.ofMillis(Math.min(maxMillis, Math.max(settings.getMinTimeoutMs(), adaptive)));
+    }
+
+    /**
+     * @return the HTTP client's executor, for stages that follow {@link TokenBucket#acquire}
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+
+    @Override
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Pulls the fields a provider needs out of a response, skipping everything else.
+     */
+    @FunctionalInterface
+    interface ResponseParser<T> {
+        T parse(JsonReader reader) throws IOException;
+    }
+
+    static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String provider) {
+            super("Circuit breaker for " + provider + " is open");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.pandadevv.VelocityShield.provider;
+
+import java.io.Reader;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+
+/**
+ * Collects a response body as the buffers the client received it in and decodes them as UTF-8 straight
+ * from those buffers, so the body is never copied into a String or a byte array and no
+ * {@link java.io.InputStreamReader} with its own byte buffer is needed. Every response gets its
+ * own buffers and reader; nothing is reused between responses.
+ * Unlike {@link HttpResponse.BodyHandlers#ofInputStream()} reading never blocks, which matters
+ * because parsing runs on the same executor the client delivers body data with.
+ */
+final class BufferedBodySubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+    static final HttpResponse.BodyHandler<Reader> HANDLER =
+        info -> HttpResponse.BodySubscribers.fromSubscriber(new BufferedBodySubscriber(), BufferedBodySubscriber::toReader);
+
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        buffers.addAll(items);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        buffers.clear();
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    private Reader toReader() {
+        return new BufferListReader(buffers);
+    }
+
+    /**
+     * @return a reader decoding {@code buffers} as UTF-8; reading advances their positions
+     */
+    static Reader reader(List<ByteBuffer> buffers) {
+        return new BufferListReader(buffers);
+    }
+
+    /**
+     * Decodes UTF-8 from a list of buffers with a JDK decoder. Malformed input becomes U+FFFD like it would
+     * with {@link java.io.InputStreamReader}.
+     */
+    private static final class BufferListReader extends Reader {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final List<ByteBuffer> buffers;
+        private int index;
+        // Start of a sequence split across buffers, topped up from the next ones until it is decoded
+        private final ByteBuffer carry = ByteBuffer.allocate(4).flip();
+        // Second half of a surrogate pair that did not fit into the previous read
+        private final CharBuffer spill = CharBuffer.allocate(2).flip();
+        private boolean done;
+
+        BufferListReader(List<ByteBuffer> buffers) {
+            this.buffers = buffers;
+        }
+
+        private ByteBuffer current() {
+            while (index < buffers.size()) {
+                ByteBuffer buffer = buffers.get(index);
+                if (buffer.hasRemaining()) {
+                    return buffer;
+                }
+                index++;
+            }
+            return null;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            Objects.checkFromIndexSize(off, len, cbuf.length);
+            if (len == 0) {
+                return 0;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            drainSpill(out);
+            decode(out);
+            if (out.position() == off && !done) {
+                // Only room for one char and the next character is a surrogate pair
+                spill.clear();
+                decode(spill);
+                spill.flip();
+                drainSpill(out);
+            }
+            int n = out.position() - off;
+            return n == 0 ? -1 : n;
+        }
+
+        private void drainSpill(CharBuffer out) {
+            while (spill.hasRemaining() && out.hasRemaining()) {
+                out.put(spill.get());
+            }
+        }
+
+        private void decode(CharBuffer out) {
+            while (out.hasRemaining() && !done) {
+                ByteBuffer in = carry.hasRemaining() ? topUpCarry() : current();
+                if (in == null) {
+                    // A sequence cut off by the end of the body becomes U+FFFD
+                    if (decoder.decode(carry, out, true).isOverflow() || decoder.flush(out).isOverflow()) {
+                        return;
+                    }
+                    done = true;
+                    return;
+                }
+                if (decoder.decode(in, out, false).isOverflow()) {
+                    return;
+                }
+                if (in != carry && in.hasRemaining()) {
+                    carry.clear();
+                    carry.put(in).flip();
+                }
+            }
+        }
+
+        /**
+         * @return the carried bytes followed by as many of the next ones as fit, or null if no bytes follow
+         */
+        private ByteBuffer topUpCarry() {
+            ByteBuffer next = current();
+            if (next == null) {
+                return null;
+            }
+            carry.compact();
+            while (carry.hasRemaining() && (next = current()) != null) {
+                carry.put(next.get());
+            }
+            return carry.flip();
+        }
+
+        @Override
+        public boolean ready() {
+            return spill.hasRemaining() || carry.hasRemaining() || current() != null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.pandadevv.VelocityShield.provider;
+
+import com.google.gson.stream.JsonReader;
+import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.PluginConfig;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ip-api.com, one GET per IP.
+ */
+public class IpApiProvider extends AbstractVpnProvider {
+    public static final String DEFAULT_ENDPOINT = "http://ip-api.com/json/%s?fields=status,isp,org,proxy,query";
+
+    private final String endpoint;
+
+    /**
+     * @param endpoint URL format with a single {@code %s} for the IP
+     */
+    public IpApiProvider(String endpoint, PluginConfig config, HttpClient httpClient) {
+        super("ip-api", config, httpClient, config.getSnapshot().getIpApiRequestsPerSecond());
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> query(String ip) {
+        return getRateLimiter().acquire(MAX_PERMIT_WAIT, TimeUnit.SECONDS).thenComposeAsync(permitted -> {
+            if (!permitted) {
+                if (config.getSnapshot().isEnableDebug()) {
+                    VelocityShield.getInstance().getLogger().warn("ip-api.com rate limit reached, skipping check for IP: " + ip);
+                }
+                return CompletableFuture.<Boolean>completedFuture(null);
+            }
+            // ip-api.com only serves the free tier over plain HTTP, so stick to HTTP/1.1 keep-alive
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(String.format(endpoint, ip)))
+                .version(HttpClient.Version.HTTP_1_1)
+                .GET();
+
+            return send(request, IpApiProvider::parseResponse);
+        }, getExecutor());
+    }
+
+    // A "fail" status means ip-api.com can't rate this IP (e.g. a private range), not that it is down
+    static Boolean parseResponse(JsonReader reader) throws IOException {
+        String status = null;
+        boolean proxy = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "status":
+                    status = reader.nextString();
+                    break;
+                case "proxy":
+                    proxy = reader.nextBoolean();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        return "success".equals(status) ? proxy : null;
+    }
+}
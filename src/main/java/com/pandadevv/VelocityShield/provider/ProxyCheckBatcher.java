@@ -0,0 +1,182 @@
+package com.pandadevv.VelocityShield.provider;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
+import com.pandadevv.VelocityShield.config.PluginConfig;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Collects proxycheck.io lookups for a short window and sends them as a single multi-IP POST.
+ * Futures complete with the verdict, or with null when proxycheck.io gave no answer for the IP.
+ */
+public class ProxyCheckBatcher {
+    private final String endpoint;
+    private final PluginConfig config;
+    private final AbstractVpnProvider provider;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private Map<String, CompletableFuture<Boolean>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * @param endpoint base URL of the proxycheck.io v2 API, e.g. {@code https://proxycheck.io/v2/}
+     * @param provider provider whose rate limiter, circuit breaker and timeouts each batch goes through
+     */
+    ProxyCheckBatcher(String endpoint, PluginConfig config, AbstractVpnProvider provider) {
+        this.endpoint = endpoint;
+        this.config = config;
+        this.provider = provider;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "VPNChecker-Batcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public CompletableFuture<Boolean> submit(String ip) {
+        Map<String, CompletableFuture<Boolean>> batch = null;
+        CompletableFuture<Boolean> future;
+        ConfigSnapshot settings = config.getSnapshot();
+        synchronized (lock) {
+            future = pending.get(ip);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pending.put(ip, future);
+
+            if (pending.size() >= settings.getProxycheckBatchSize()) {
+                batch = drain();
+            } else if (scheduledFlush == null) {
+                try {
+                    scheduledFlush = scheduler.schedule(this::flush, settings.getProxycheckBatchWindowMs(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    batch = drain();
+                }
+            }
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return future;
+    }
+
+    private void flush() {
+        Map<String, CompletableFuture<Boolean>> batch;
+        synchronized (lock) {
+            scheduledFlush = null;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = drain();
+        }
+        dispatch(batch);
+    }
+
+    // Caller holds the lock
+    private Map<String, CompletableFuture<Boolean>> drain() {
+        Map<String, CompletableFuture<Boolean>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(Map<String, CompletableFuture<Boolean>> batch) {
+        ConfigSnapshot settings = config.getSnapshot();
+        provider.getRateLimiter().acquire(AbstractVpnProvider.MAX_PERMIT_WAIT, TimeUnit.SECONDS).thenComposeAsync(permitted -> {
+            if (!permitted) {
+                if (settings.isEnableDebug()) {
+                    VelocityShield.getInstance().getLogger().warn("proxycheck.io rate limit reached, skipping batch of " + batch.size() + " IPs");
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+            return send(batch);
+        }, provider.getExecutor()).whenComplete((ignored, error) -> {
+            if (error != null && settings.isEnableDebug() && !(error.getCause() instanceof AbstractVpnProvider.CircuitOpenException)) {
+                VelocityShield.getInstance().getLogger().error("Error with proxycheck.io batch of " + batch.size() + " IPs", error);
+            }
+            // Anything proxycheck.io did not answer for gets no verdict
+            batch.values().forEach(future -> future.complete(null));
+        });
+    }
+
+    private CompletableFuture<Void> send(Map<String, CompletableFuture<Boolean>> batch) {
+        String url = endpoint + "?key=" + URLEncoder.encode(config.getSnapshot().getProxycheckApiKey(), StandardCharsets.UTF_8) + "&vpn=1";
+        String body = "ips=" + URLEncoder.encode(String.join(",", batch.keySet()), StandardCharsets.UTF_8);
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+            .version(HttpClient.Version.HTTP_2)
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(body));
+
+        return provider.send(request, reader -> {
+            parseResponse(reader, batch);
+            return null;
+        });
+    }
+
+    /**
+     * Completes the future of every IP in {@code batch} that the response has a verdict for.
+     */
+    static void parseResponse(JsonReader reader, Map<String, CompletableFuture<Boolean>> batch) throws IOException {
+        String status = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            CompletableFuture<Boolean> future;
+            if (name.equals("status")) {
+                status = reader.nextString();
+            } else if ((future = batch.get(name)) != null && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                Boolean proxy = readProxyField(reader);
+                if (proxy != null) {
+                    future.complete(proxy);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        // "warning" responses (e.g. nearing the query limit) still carry per-IP results,
+        // "denied" and "error" mean the service is refusing us and count as a failed call
+        if (!status.equals("ok") && !status.equals("warning")) {
+            throw new IllegalStateException("proxycheck.io responded with status " + status);
+        }
+    }
+
+    private static Boolean readProxyField(JsonReader reader) throws IOException {
+        Boolean proxy = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("proxy") && reader.peek() == JsonToken.STRING) {
+                proxy = reader.nextString().equals("yes");
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return proxy;
+    }
+
+    public void shutdown() {
+        Map<String, CompletableFuture<Boolean>> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        scheduler.shutdownNow();
+        batch.values().forEach(future -> future.complete(null));
+    }
+}
@@ -0,0 +1,30 @@
+package com.pandadevv.VelocityShield.provider;
+
+import com.pandadevv.VelocityShield.config.PluginConfig;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * proxycheck.io, queried through a {@link ProxyCheckBatcher} so concurrent misses share one request.
+ */
+public class ProxyCheckProvider extends AbstractVpnProvider {
+    public static final String DEFAULT_ENDPOINT = "https://proxycheck.io/v2/";
+
+    private final ProxyCheckBatcher batcher;
+
+    public ProxyCheckProvider(String endpoint, PluginConfig config, HttpClient httpClient) {
+        super("proxycheck", config, httpClient, config.getSnapshot().getProxycheckRequestsPerSecond());
+        this.batcher = new ProxyCheckBatcher(endpoint, config, this);
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> query(String ip) {
+        return batcher.submit(ip);
+    }
+
+    @Override
+    public void shutdown() {
+        batcher.shutdown();
+    }
+}
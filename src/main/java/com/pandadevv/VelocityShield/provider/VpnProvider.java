@@ -0,0 +1,49 @@
+package com.pandadevv.VelocityShield.provider;
+
+import com.pandadevv.VelocityShield.util.CircuitBreaker;
+import com.pandadevv.VelocityShield.util.LatencyHistogram;
+import com.pandadevv.VelocityShield.util.TokenBucket;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A remote VPN detection service.
+ */
+public interface VpnProvider {
+    String getName();
+
+    /**
+     * @return a future completing with the verdict, or with null when the service gave no usable answer.
+     *         The future never completes exceptionally.
+     */
+    CompletableFuture<Boolean> check(String ip);
+
+    TokenBucket getRateLimiter();
+
+    CircuitBreaker getCircuitBreaker();
+
+    /**
+     * @return the timeout applied to the next request
+     */
+    Duration getCurrentTimeout();
+
+    /**
+     * @return response times of requests, including timed-out ones recorded at their timeout; answered
+     *         requests are its count minus {@link #getTimeoutCount()}
+     */
+    LatencyHistogram getLatency();
+
+    /**
+     * @return requests that timed out
+     */
+    long getTimeoutCount();
+
+    /**
+     * @return checks that failed with an error rather than a verdict
+     */
+    long getErrorCount();
+
+    default void shutdown() {
+    }
+}
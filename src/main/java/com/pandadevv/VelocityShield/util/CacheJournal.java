@@ -0,0 +1,311 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of cache entries. Each record is {high, low, value, crc32} in a fixed 28 bytes;
+ * a later record for a key overrides earlier ones. Records are buffered in memory and appended in bulk,
+ * and the log is compacted by rewriting it from the live entries into a temp file that replaces it
+ * atomically. A record torn by a crash fails its checksum and is cut off on the next load.
+ * <p>
+ * The log is read and written through plain channel I/O, never mapped, so it can be truncated and
+ * replaced on every platform.
+ * <p>
+ * Not thread-safe; {@link IPCache} serializes access, except for {@link #writeCompaction}, which only
+ * touches its own file so the slow part of a compaction can run without the caller's lock.
+ */
+class CacheJournal {
+    private static final int MAGIC = 0x5653434A; // "VSCJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 28;
+    private static final int BUFFER_RECORDS = 2048;
+
+    private final Path file;
+    private final Path tempFile;
+    private final Path compactionFile;
+    private final ByteBuffer pending = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer checksumScratch = ByteBuffer.allocate(24);
+    private FileChannel channel;
+    private long recordCount;
+
+    CacheJournal(Path file) {
+        this.file = file;
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        this.compactionFile = file.resolveSibling(file.getFileName() + ".compact");
+    }
+
+    boolean exists() {
+        return Files.exists(file);
+    }
+
+    /**
+     * Replays every intact record into {@code consumer}, cuts off a torn tail and opens the log for appending.
+     */
+    void load(IPCacheStore.EntryConsumer consumer) throws IOException {
+        if (!Files.exists(file)) {
+            rewrite(null);
+            return;
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long validEnd = HEADER_SIZE;
+        if (size >= HEADER_SIZE) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+            long position = 0;
+            while (buffer.position() < HEADER_SIZE) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Cache journal shrank while loading: " + file);
+                }
+                position += read;
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                channel.close();
+                channel = null;
+                throw new IOException("Not a VelocityShield cache journal: " + file);
+            }
+            boolean corrupt = false;
+            while (!corrupt) {
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    long high = buffer.getLong();
+                    long low = buffer.getLong();
+                    long value = buffer.getLong();
+                    if (checksum(high, low, value) != buffer.getInt()) {
+                        corrupt = true;
+                        break;
+                    }
+                    consumer.accept(high, low, value);
+                    validEnd += RECORD_SIZE;
+                }
+                buffer.compact();
+                int read = corrupt ? -1 : channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+                buffer.flip();
+            }
+        }
+        if (validEnd != size) {
+            // Torn or corrupt tail from an interrupted write: drop it so appends continue from a clean record
+            if (size < HEADER_SIZE) {
+                channel.close();
+                channel = null;
+                rewrite(null);
+                return;
+            }
+            channel.truncate(validEnd);
+        }
+        recordCount = (validEnd - HEADER_SIZE) / RECORD_SIZE;
+        channel.position(validEnd);
+    }
+
+    void append(long high, long low, long value) throws IOException {
+        if (pending.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        pending.putLong(high).putLong(low).putLong(value).putInt(checksum(high, low, value));
+        recordCount++;
+    }
+
+    /**
+     * Writes buffered records to the end of the log.
+     */
+    void flush() throws IOException {
+        if (pending.position() == 0 || channel == null) {
+            return;
+        }
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Replaces the log with one record per live entry. Buffered records are dropped; the caller
+     * guarantees {@code store} already holds everything they described.
+     */
+    void compact(IPCacheStore store) throws IOException {
+        pending.clear();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        rewrite(store);
+    }
+
+    /**
+     * First step of a compaction that doesn't hold the caller's lock while writing: writes out buffered
+     * records and returns the end of the log. Every record appended after this point is copied over by
+     * {@link #finishCompaction}, so the entries passed to {@link #writeCompaction} may be read at any
+     * time after this call.
+     *
+     * @return the log offset to pass to {@link #finishCompaction}, or -1 if the log isn't open
+     */
+    long startCompaction() throws IOException {
+        if (channel == null) {
+            return -1;
+        }
+        flush();
+        return channel.position();
+    }
+
+    /**
+     * Writes and syncs one record per live entry to the compaction file. Safe to call without the
+     * caller's lock, since it shares no state with the open log.
+     *
+     * @return records written
+     */
+    long writeCompaction(IPCacheStore store) throws IOException {
+        return writeSnapshot(compactionFile, store);
+    }
+
+    /**
+     * Last step of a compaction: appends the records written to the log since {@code mark} to the
+     * compaction file and moves it over the log. Those records describe newer writes than the snapshot,
+     * so they are replayed after it on the next load. Only the tail is copied here and it isn't synced,
+     * the same as regular appends.
+     */
+    void finishCompaction(long mark, long snapshotRecords) throws IOException {
+        if (channel == null || mark < 0) {
+            abortCompaction();
+            return;
+        }
+        flush();
+        long end = channel.position();
+        try (FileChannel out = FileChannel.open(compactionFile, StandardOpenOption.WRITE)) {
+            out.position(out.size());
+            long position = mark;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, out);
+            }
+        }
+        channel.close();
+        channel = null;
+        try {
+            replace(compactionFile);
+        } finally {
+            // Reopens the old log if the move failed
+            openForAppend();
+        }
+        recordCount = snapshotRecords + (end - mark) / RECORD_SIZE;
+    }
+
+    /**
+     * Drops the compaction file of a compaction that won't be finished.
+     */
+    void abortCompaction() throws IOException {
+        Files.deleteIfExists(compactionFile);
+    }
+
+    private void rewrite(IPCacheStore store) throws IOException {
+        long written = writeSnapshot(tempFile, store);
+        replace(tempFile);
+        openForAppend();
+        recordCount = written;
+    }
+
+    private static long writeSnapshot(Path target, IPCacheStore store) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer scratch = ByteBuffer.allocate(24);
+        long[] written = {0};
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            if (store != null) {
+                IOException[] failure = {null};
+                store.forEach((high, low, value) -> {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        if (buffer.remaining() < RECORD_SIZE) {
+                            writeFully(out, buffer);
+                        }
+                        buffer.putLong(high).putLong(low).putLong(value).putInt(checksum(crc, scratch, high, low, value));
+                        written[0]++;
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+            writeFully(out, buffer);
+            out.force(false);
+        }
+        return written[0];
+    }
+
+    private void replace(Path source) throws IOException {
+        try {
+            Files.move(source, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void openForAppend() throws IOException {
+        // Readable too, so finishCompaction can copy the tail out of it
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return records in the log, including ones superseded by later records
+     */
+    long getRecordCount() {
+        return recordCount;
+    }
+
+    void close() throws IOException {
+        try {
+            flush();
+            if (channel != null) {
+                channel.force(false);
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private int checksum(long high, long low, long value) {
+        return checksum(crc, checksumScratch, high, low, value);
+    }
+
+    private static int checksum(CRC32 crc, ByteBuffer scratch, long high, long low, long value) {
+        scratch.clear();
+        scratch.putLong(high).putLong(low).putLong(value).flip();
+        crc.reset();
+        crc.update(scratch);
+        return (int) crc.getValue();
+    }
+}
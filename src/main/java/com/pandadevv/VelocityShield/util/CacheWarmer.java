@@ -0,0 +1,175 @@
+package com.pandadevv.VelocityShield.util;
+
+import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
+import com.pandadevv.VelocityShield.config.PluginConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Refills the cache in the background after a restart or reload, so the first logins afterwards are cache
+ * hits instead of all missing at once. Online players come first, then the most frequent recent joiners
+ * from an {@link IPFrequencySketch} that is kept across restarts in {@code hot-ips.dat}.
+ * <p>
+ * IPs are handed to {@link VPNChecker#prefetch} in one burst per second, so proxycheck.io can answer a
+ * whole burst with one batch request. A burst is skipped while more than half of the lookup slots are in
+ * use or the checker is in overload mode, leaving the services to real logins.
+ */
+public class CacheWarmer {
+    private static final String SKETCH_FILE = "hot-ips.dat";
+    private static final long SAVE_INTERVAL_MINUTES = 5;
+
+    private final VPNChecker vpnChecker;
+    private final PluginConfig config;
+    private final Path sketchFile;
+    private final IPFrequencySketch sketch;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder prefetched = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    // Guarded by this
+    private final Deque<String> queue = new ArrayDeque<>();
+    private ScheduledFuture<?> warmupTask;
+
+    public CacheWarmer(VPNChecker vpnChecker, PluginConfig config, Path dataDirectory) {
+        this.vpnChecker = vpnChecker;
+        this.config = config;
+        this.sketchFile = dataDirectory.resolve(SKETCH_FILE);
+        this.sketch = vpnChecker.getFrequentJoiners();
+        try {
+            sketch.load(sketchFile);
+        } catch (IOException e) {
+            VelocityShield.getInstance().getLogger().error("Failed to load " + SKETCH_FILE + ", starting with no frequent IPs", e);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "VelocityShield-CacheWarmup");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Counts a login that a detection service confirmed as clean towards the frequent joiners.
+     */
+    public void recordLogin(String ip) {
+        sketch.record(ip);
+    }
+
+    /**
+     * Replaces any warm-up in progress with one for {@code onlineIps} followed by the frequent joiners.
+     */
+    public synchronized void start(Collection<String> onlineIps) {
+        stopWarmup();
+        ConfigSnapshot settings = config.getSnapshot();
+        if (!settings.isEnableCacheWarmup() || !settings.isEnableCache()) {
+            return;
+        }
+        Set<String> candidates = new LinkedHashSet<>(onlineIps);
+        candidates.addAll(sketch.top(settings.getWarmupTopIps(), TimeUnit.DAYS.toMillis(settings.getWarmupMaxAgeDays())));
+        for (String ip : candidates) {
+            if (!settings.isIPWhitelisted(ip)) {
+                queue.add(ip);
+            }
+        }
+        if (queue.isEmpty()) {
+            return;
+        }
+        VelocityShield.getInstance().getLogger().info("Warming up the cache for " + queue.size() + " IPs ("
+            + onlineIps.size() + " online players)");
+        warmupTask = scheduler.scheduleWithFixedDelay(this::warmNext, 0, 1, TimeUnit.SECONDS);
+    }
+
+    private synchronized void warmNext() {
+        if (vpnChecker.getActiveLookups() > vpnChecker.getMaxConcurrentLookups() / 2
+                || vpnChecker.getOverloadController().isDegraded()) {
+            return;
+        }
+        ConfigSnapshot settings = config.getSnapshot();
+        for (int i = 0; i < settings.getWarmupIpsPerSecond() && !queue.isEmpty(); i++) {
+            if (vpnChecker.prefetch(queue.poll())) {
+                prefetched.increment();
+            } else {
+                skipped.increment();
+            }
+        }
+        // warmupTask is null when this run raced with stopWarmup
+        if (queue.isEmpty() && warmupTask != null) {
+            warmupTask.cancel(false);
+            warmupTask = null;
+            if (settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().info("Cache warm-up finished: " + prefetched.sum() + " IPs checked, "
+                    + skipped.sum() + " already cached in total");
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private void stopWarmup() {
+        if (warmupTask != null) {
+            warmupTask.cancel(false);
+            warmupTask = null;
+        }
+        queue.clear();
+    }
+
+    private void save() {
+        try {
+            sketch.save(sketchFile, TimeUnit.DAYS.toMillis(config.getSnapshot().getWarmupMaxAgeDays()));
+        } catch (IOException e) {
+            VelocityShield.getInstance().getLogger().error("Failed to save " + SKETCH_FILE, e);
+        }
+    }
+
+    /**
+     * @return IPs sent for a lookup by warm-ups so far
+     */
+    public long getPrefetchedCount() {
+        return prefetched.sum();
+    }
+
+    /**
+     * @return warm-up IPs that needed no lookup, because they were cached, in flight or in the range database
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    public int getTrackedCount() {
+        return sketch.size();
+    }
+
+    /**
+     * Stops any warm-up in progress and saves the frequent joiners.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            stopWarmup();
+        }
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        save();
+    }
+}
@@ -0,0 +1,159 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.util.Arrays;
+
+/**
+ * Path-compressed binary (Patricia) trie of address ranges over the 128-bit keys of {@link IPAddressUtil}.
+ * Each node holds a prefix and the bit length it covers; only the nodes where stored prefixes diverge
+ * exist, so a lookup visits at most one node per branching bit and allocates nothing.
+ * <p>
+ * Not safe for concurrent modification; build it once and publish the finished instance.
+ */
+public class CidrTrie {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    // Parse target for contains(String); lookups run on a handful of event and scheduler threads
+    private static final ThreadLocal<long[]> KEY = ThreadLocal.withInitial(() -> new long[2]);
+
+    private long[] keyHigh;
+    private long[] keyLow;
+    private byte[] prefixLength;
+    private boolean[] terminal;
+    // child for bit 0 at 2 * node, child for bit 1 at 2 * node + 1
+    private int[] children;
+    private int nodeCount;
+    private int size;
+
+    public CidrTrie() {
+        keyHigh = new long[16];
+        keyLow = new long[16];
+        prefixLength = new byte[16];
+        terminal = new boolean[16];
+        children = new int[32];
+        Arrays.fill(children, NONE);
+        newNode(0, 0, 0, false);
+    }
+
+    /**
+     * Adds a range; the key must already have its host bits cleared (see {@link IPAddressUtil#parseCidr}).
+     */
+    public void add(long high, long low, int length) {
+        int node = ROOT;
+        while (true) {
+            if (terminal[node]) {
+                // Already covered by a shorter or equal range
+                return;
+            }
+            int nodeLength = length(node);
+            if (nodeLength == length) {
+                terminal[node] = true;
+                size++;
+                return;
+            }
+            int slot = 2 * node + bit(high, low, nodeLength);
+            int child = children[slot];
+            if (child == NONE) {
+                // newNode may grow the arrays, so it has to run before children is dereferenced
+                int leaf = newNode(high, low, length, true);
+                children[slot] = leaf;
+                size++;
+                return;
+            }
+            int childLength = length(child);
+            int common = commonPrefix(high, low, keyHigh[child], keyLow[child], Math.min(length, childLength));
+            if (common == childLength) {
+                node = child;
+                continue;
+            }
+
+            // The new range diverges from the child part way along its edge: split the edge there
+            int split = newNode(IPAddressUtil.maskHigh(high, common), IPAddressUtil.maskLow(low, common), common, common == length);
+            children[slot] = split;
+            children[2 * split + bit(keyHigh[child], keyLow[child], common)] = child;
+            if (common < length) {
+                int leaf = newNode(high, low, length, true);
+                children[2 * split + bit(high, low, common)] = leaf;
+            }
+            size++;
+            return;
+        }
+    }
+
+    /**
+     * @return true if any stored range covers the address
+     */
+    public boolean contains(long high, long low) {
+        int node = ROOT;
+        while (true) {
+            if (terminal[node]) {
+                return true;
+            }
+            int nodeLength = length(node);
+            if (nodeLength == 128) {
+                return false;
+            }
+            int child = children[2 * node + bit(high, low, nodeLength)];
+            if (child == NONE) {
+                return false;
+            }
+            int childLength = length(child);
+            if (commonPrefix(high, low, keyHigh[child], keyLow[child], childLength) < childLength) {
+                return false;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * @return true if the string is a valid IP literal and any stored range covers it
+     */
+    public boolean contains(String ip) {
+        long[] key = KEY.get();
+        return IPAddressUtil.parse(ip, key) && contains(key[0], key[1]);
+    }
+
+    /**
+     * @return number of ranges that were not already covered by a stored range when added
+     */
+    public int size() {
+        return size;
+    }
+
+    private int newNode(long high, long low, int length, boolean isTerminal) {
+        if (nodeCount == keyHigh.length) {
+            int capacity = nodeCount * 2;
+            keyHigh = Arrays.copyOf(keyHigh, capacity);
+            keyLow = Arrays.copyOf(keyLow, capacity);
+            prefixLength = Arrays.copyOf(prefixLength, capacity);
+            terminal = Arrays.copyOf(terminal, capacity);
+            children = Arrays.copyOf(children, capacity * 2);
+            Arrays.fill(children, nodeCount * 2, capacity * 2, NONE);
+        }
+        int node = nodeCount++;
+        keyHigh[node] = high;
+        keyLow[node] = low;
+        prefixLength[node] = (byte) length;
+        terminal[node] = isTerminal;
+        return node;
+    }
+
+    private int length(int node) {
+        return prefixLength[node] & 0xFF;
+    }
+
+    private static int bit(long high, long low, int index) {
+        return (int) (index < 64 ? (high >>> (63 - index)) & 1 : (low >>> (127 - index)) & 1);
+    }
+
+    private static int commonPrefix(long high1, long low1, long high2, long low2, int maxLength) {
+        long diff = high1 ^ high2;
+        if (diff != 0) {
+            return Math.min(Long.numberOfLeadingZeros(diff), maxLength);
+        }
+        diff = low1 ^ low2;
+        if (diff != 0) {
+            return Math.min(64 + Long.numberOfLeadingZeros(diff), maxLength);
+        }
+        return maxLength;
+    }
+}
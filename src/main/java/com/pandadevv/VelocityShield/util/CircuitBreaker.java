@@ -0,0 +1,165 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Count-based circuit breaker. The last {@link #WINDOW_SIZE} calls are kept in a ring buffer; once
+ * enough of them failed or were slow the breaker opens and callers are turned away without a request.
+ * After the open period a few trial calls are let through (half-open) to decide whether to close again.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_CALLS = 10;
+    private static final int HALF_OPEN_PERMITS = 3;
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private int windowIndex;
+    private int windowCalls;
+    private int windowFailures;
+    private int windowSlowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenIssued;
+    private int halfOpenCompleted;
+    private boolean halfOpenFailed;
+
+    /**
+     * @param failureRateThreshold  percentage of failed calls in the window that opens the breaker
+     * @param slowCallRateThreshold percentage of slow calls in the window that opens the breaker
+     */
+    public CircuitBreaker(String name, double failureRateThreshold, double slowCallRateThreshold,
+                          long slowCallMillis, long openSeconds) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+    }
+
+    /**
+     * @return true if a call may be made; every permitted call must be reported through {@link #onResult}
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            halfOpenIssued = 0;
+            halfOpenCompleted = 0;
+            halfOpenFailed = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenIssued >= HALF_OPEN_PERMITS) {
+                return false;
+            }
+            halfOpenIssued++;
+        }
+        return true;
+    }
+
+    public synchronized void onResult(boolean failed, long durationNanos) {
+        byte outcome = failed ? FAILURE : durationNanos >= slowCallNanos ? SLOW : SUCCESS;
+        if (state == State.HALF_OPEN) {
+            halfOpenCompleted++;
+            halfOpenFailed |= outcome != SUCCESS;
+            if (halfOpenFailed) {
+                open();
+            } else if (halfOpenCompleted >= HALF_OPEN_PERMITS) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // Late result of a call made before the breaker opened
+            return;
+        }
+
+        if (windowCalls == WINDOW_SIZE) {
+            byte evicted = window[windowIndex];
+            if (evicted == FAILURE) {
+                windowFailures--;
+            } else if (evicted == SLOW) {
+                windowSlowCalls--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowIndex] = outcome;
+        windowIndex = (windowIndex + 1) % WINDOW_SIZE;
+        if (outcome == FAILURE) {
+            windowFailures++;
+        } else if (outcome == SLOW) {
+            windowSlowCalls++;
+        }
+
+        if (windowCalls >= MIN_CALLS
+            && (getFailureRate() >= failureRateThreshold || getSlowCallRate() >= slowCallRateThreshold)) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowIndex = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+        windowSlowCalls = 0;
+    }
+
+    /**
+     * @return true while the breaker is open and its open period has not elapsed yet
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openedAt < openNanos;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return percentage of failed calls in the current window
+     */
+    public synchronized double getFailureRate() {
+        return windowCalls == 0 ? 0 : windowFailures * 100.0 / windowCalls;
+    }
+
+    /**
+     * @return percentage of slow calls in the current window
+     */
+    public synchronized double getSlowCallRate() {
+        return windowCalls == 0 ? 0 : windowSlowCalls * 100.0 / windowCalls;
+    }
+
+    /**
+     * @return seconds until an open breaker lets trial calls through, 0 otherwise
+     */
+    public synchronized long getRemainingOpenSeconds() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toSeconds(openNanos - (System.nanoTime() - openedAt)));
+    }
+}
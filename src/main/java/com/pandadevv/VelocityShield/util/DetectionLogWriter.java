@@ -0,0 +1,230 @@
+package com.pandadevv.VelocityShield.util;
+
+import com.pandadevv.VelocityShield.VelocityShield;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes detection log lines from a single background thread. Callers only enqueue; the writer drains the
+ * queue in batches into one open file and flushes once per batch. The log is rotated when it reaches its
+ * size limit or the day changes, and rotated files are gzipped. When the queue is full lines are dropped
+ * and counted, and the count is written to the log once there is room again.
+ */
+public class DetectionLogWriter {
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter ROTATED_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final Path logFile;
+    private final LongSupplier maxSizeBytes;
+    private final IntSupplier maxFiles;
+    // Bounded by the size counter: producers reserve a slot before offering, so the queue itself never blocks
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private BufferedWriter writer;
+    private long fileSize;
+    private LocalDate fileDay;
+    private long reportedDrops;
+
+    /**
+     * @param maxSizeBytes size at which the log is rotated, read on every batch so config reloads apply
+     * @param maxFiles     rotated files to keep, 0 to keep all
+     */
+    public DetectionLogWriter(Path logFile, LongSupplier maxSizeBytes, IntSupplier maxFiles) {
+        this.logFile = logFile;
+        this.maxSizeBytes = maxSizeBytes;
+        this.maxFiles = maxFiles;
+        this.writerThread = new Thread(this::run, "VelocityShield-DetectionLog");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void logDetection(String username, String ip) {
+        if (!running) {
+            return;
+        }
+        int size = queued.incrementAndGet();
+        if (size > QUEUE_CAPACITY) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        String timestamp = LocalDateTime.now().format(DATE_FORMAT);
+        queue.offer(String.format("[%s] VPN detected - Username: %s, IP: %s%n", timestamp, username, ip));
+        if (size == 1) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            if (queue.isEmpty()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                writeBatch();
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to write to log file", e);
+                closeWriter();
+                // Back off instead of spinning on a broken disk; queued lines stay queued
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        closeWriter();
+    }
+
+    private void writeBatch() throws IOException {
+        openIfNeeded();
+        long drops = dropped.sum();
+        if (drops != reportedDrops) {
+            write(String.format("[%s] %d detection log entries dropped (queue full)%n",
+                LocalDateTime.now().format(DATE_FORMAT), drops - reportedDrops));
+            reportedDrops = drops;
+        }
+        // Lines leave the queue only once written, so a failed write keeps its line for the next batch.
+        // This is the only consumer, so the head cannot change between peek and poll.
+        String line;
+        while ((line = queue.peek()) != null) {
+            write(line);
+            queue.poll();
+            queued.decrementAndGet();
+        }
+        writer.flush();
+    }
+
+    private void write(String line) throws IOException {
+        if (fileSize >= maxSizeBytes.getAsLong() || !LocalDate.now().equals(fileDay)) {
+            rotate();
+        }
+        writer.write(line);
+        // Detection lines are ASCII apart from usernames, close enough for a rotation threshold
+        fileSize += line.length();
+    }
+
+    private void openIfNeeded() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        if (Files.exists(logFile)) {
+            fileSize = Files.size(logFile);
+            fileDay = LocalDate.ofInstant(Files.getLastModifiedTime(logFile).toInstant(), ZoneId.systemDefault());
+        } else {
+            fileSize = 0;
+            fileDay = LocalDate.now();
+        }
+        writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void rotate() throws IOException {
+        closeWriter();
+        if (Files.exists(logFile) && Files.size(logFile) > 0) {
+            String baseName = logFile.getFileName().toString().replaceFirst("\\.txt$", "");
+            String prefix = baseName + "-" + fileDay.format(ROTATED_DATE_FORMAT) + "-";
+            int index = 1;
+            Path rotated;
+            do {
+                rotated = logFile.resolveSibling(prefix + index++ + ".txt.gz");
+            } while (Files.exists(rotated));
+
+            try (InputStream in = Files.newInputStream(logFile);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(rotated))) {
+                in.transferTo(out);
+            }
+            Files.delete(logFile);
+            pruneRotatedFiles(baseName);
+        }
+        fileSize = 0;
+        fileDay = LocalDate.now();
+        writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void pruneRotatedFiles(String baseName) throws IOException {
+        int keep = maxFiles.getAsInt();
+        if (keep <= 0) {
+            return;
+        }
+        List<Path> rotated = new ArrayList<>();
+        try (Stream<Path> files = Files.list(logFile.toAbsolutePath().getParent())) {
+            files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(baseName + "-") && name.endsWith(".txt.gz");
+            }).forEach(rotated::add);
+        }
+        if (rotated.size() <= keep) {
+            return;
+        }
+        rotated.sort(Comparator.comparing(path -> {
+            try {
+                return Files.getLastModifiedTime(path);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (int i = 0; i < rotated.size() - keep; i++) {
+            Files.deleteIfExists(rotated.get(i));
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            VelocityShield.getInstance().getLogger().error("Failed to close log file", e);
+        }
+        writer = null;
+    }
+
+    /**
+     * Stops accepting lines and waits briefly for the queue to be written out.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
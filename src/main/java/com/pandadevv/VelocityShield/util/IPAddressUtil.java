@@ -0,0 +1,293 @@
+package com.pandadevv.VelocityShield.util;
+
+/**
+ * Parses IP literals into a 128-bit key held as two longs, without DNS lookups.
+ * IPv4 addresses are stored in the IPv4-mapped IPv6 range (::ffff:a.b.c.d), so both
+ * families share one key space and one IPv4 address always maps to a single key.
+ */
+public final class IPAddressUtil {
+    public static final long IPV4_MAPPED_HIGH = 0L;
+    public static final long IPV4_MAPPED_PREFIX = 0x0000FFFF00000000L;
+
+    private IPAddressUtil() {
+    }
+
+    /**
+     * @return {high, low} for a valid IPv4 or IPv6 literal, or null if the string is not one
+     */
+    public static long[] parse(String ip) {
+        long[] key = new long[2];
+        return parse(ip, key) ? key : null;
+    }
+
+    /**
+     * Like {@link #parse(String)} but writes high and low into {@code key[0]} and {@code key[1]}, so hot
+     * paths can parse without allocating. {@code key} is left in an unspecified state for invalid input.
+     *
+     * @return whether the string is a valid IPv4 or IPv6 literal
+     */
+    public static boolean parse(String ip, long[] key) {
+        if (ip == null || ip.isEmpty()) {
+            return false;
+        }
+        int zone = ip.indexOf('%');
+        int end = zone >= 0 ? zone : ip.length();
+        int start = 0;
+        if (ip.charAt(0) == '[' && end > 1 && ip.charAt(end - 1) == ']') {
+            start = 1;
+            end--;
+        }
+
+        if (ip.indexOf(':', start) < 0) {
+            long v4 = parseIPv4(ip, start, end);
+            if (v4 < 0) {
+                return false;
+            }
+            key[0] = IPV4_MAPPED_HIGH;
+            key[1] = IPV4_MAPPED_PREFIX | v4;
+            return true;
+        }
+        return parseIPv6(ip, start, end, key);
+    }
+
+    /**
+     * Parses an IP or CIDR range ({@code 10.0.0.0/8}, {@code 2001:db8::/32}). A bare address is a
+     * single-host range. IPv4 prefix lengths are shifted into the IPv4-mapped range (/8 becomes /104).
+     *
+     * @return {high, low, prefixLength} with host bits cleared, or null if the string is not a valid range
+     */
+    public static long[] parseCidr(String cidr) {
+        if (cidr == null) {
+            return null;
+        }
+        int slash = cidr.indexOf('/');
+        long[] key = parse(slash < 0 ? cidr : cidr.substring(0, slash));
+        if (key == null) {
+            return null;
+        }
+        boolean v4 = cidr.indexOf(':') < 0;
+        int maxLength = v4 ? 32 : 128;
+        int length = maxLength;
+        if (slash >= 0) {
+            String suffix = cidr.substring(slash + 1);
+            if (suffix.isEmpty() || suffix.length() > 3 || !suffix.chars().allMatch(Character::isDigit)) {
+                return null;
+            }
+            length = Integer.parseInt(suffix);
+            if (length > maxLength) {
+                return null;
+            }
+        }
+        if (v4) {
+            length += 96;
+        }
+        return new long[] {maskHigh(key[0], length), maskLow(key[1], length), length};
+    }
+
+    /**
+     * Formats a range from {@link #parseCidr} canonically, leaving off the suffix for single hosts.
+     */
+    public static String formatCidr(long high, long low, int prefixLength) {
+        String address = format(high, low);
+        if (prefixLength == 128) {
+            return address;
+        }
+        return address + "/" + (isIPv4(high, low) && prefixLength >= 96 ? prefixLength - 96 : prefixLength);
+    }
+
+    public static long maskHigh(long high, int prefixLength) {
+        if (prefixLength >= 64) {
+            return high;
+        }
+        return prefixLength == 0 ? 0 : high & (-1L << (64 - prefixLength));
+    }
+
+    public static long maskLow(long low, int prefixLength) {
+        if (prefixLength <= 64) {
+            return 0;
+        }
+        return prefixLength == 128 ? low : low & (-1L << (128 - prefixLength));
+    }
+
+    /**
+     * @return the address as an unsigned 32-bit value, or -1 if invalid
+     */
+    public static long parseIPv4(String ip, int start, int end) {
+        long result = 0;
+        int octets = 0;
+        int value = -1;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits > 0 && value == 0) {
+                    return -1;
+                }
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255 || ++digits > 3) {
+                    return -1;
+                }
+            } else if (c == '.') {
+                if (value < 0 || octets == 3) {
+                    return -1;
+                }
+                result = (result << 8) | value;
+                octets++;
+                value = -1;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (value < 0 || octets != 3) {
+            return -1;
+        }
+        return (result << 8) | value;
+    }
+
+    private static boolean parseIPv6(String ip, int start, int end, long[] key) {
+        // Groups are shifted in from the right as they are read; a "::" gap is opened up at the end
+        long high = 0;
+        long low = 0;
+        int count = 0;
+        int compressAt = -1;
+        int i = start;
+
+        if (end - start >= 2 && ip.charAt(start) == ':') {
+            if (ip.charAt(start + 1) != ':') {
+                return false;
+            }
+            compressAt = 0;
+            i = start + 2;
+        }
+
+        while (i < end) {
+            if (count == 8) {
+                return false;
+            }
+            int groupStart = i;
+            int value = 0;
+            while (i < end && Character.digit(ip.charAt(i), 16) >= 0) {
+                value = (value << 4) | Character.digit(ip.charAt(i), 16);
+                i++;
+            }
+            int length = i - groupStart;
+
+            if (i < end && ip.charAt(i) == '.') {
+                // Embedded IPv4 tail, e.g. ::ffff:1.2.3.4
+                if (count > 6) {
+                    return false;
+                }
+                long v4 = parseIPv4(ip, groupStart, end);
+                if (v4 < 0) {
+                    return false;
+                }
+                high = (high << 32) | (low >>> 32);
+                low = (low << 32) | v4;
+                count += 2;
+                i = end;
+                break;
+            }
+            if (length == 0 || length > 4) {
+                return false;
+            }
+            high = (high << 16) | (low >>> 48);
+            low = (low << 16) | value;
+            count++;
+
+            if (i == end) {
+                break;
+            }
+            if (ip.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+            if (i < end && ip.charAt(i) == ':') {
+                if (compressAt >= 0) {
+                    return false;
+                }
+                compressAt = count;
+                i++;
+            } else if (i == end) {
+                return false;
+            }
+        }
+
+        if (compressAt >= 0) {
+            if (count == 8) {
+                return false;
+            }
+            // Keep the groups after the gap in place and move the ones before it up past the zeros
+            int tailBits = 16 * (count - compressAt);
+            long tailHigh = tailBits > 64 ? high & ((1L << (tailBits - 64)) - 1) : 0;
+            long tailLow = tailBits >= 64 ? low : low & ((1L << tailBits) - 1);
+            long headHigh = high ^ tailHigh;
+            long headLow = low ^ tailLow;
+            int shift = 16 * (8 - count);
+            if (shift >= 64) {
+                headHigh = shift == 128 ? 0 : headLow << (shift - 64);
+                headLow = 0;
+            } else {
+                headHigh = (headHigh << shift) | (headLow >>> (64 - shift));
+                headLow <<= shift;
+            }
+            high = headHigh | tailHigh;
+            low = headLow | tailLow;
+        } else if (count != 8) {
+            return false;
+        }
+
+        key[0] = high;
+        key[1] = low;
+        return true;
+    }
+
+    public static boolean isIPv4(long high, long low) {
+        return high == IPV4_MAPPED_HIGH && (low & 0xFFFFFFFF00000000L) == IPV4_MAPPED_PREFIX;
+    }
+
+    /**
+     * Formats a key back into its canonical text form (dotted quad for IPv4, RFC 5952 for IPv6).
+     */
+    public static String format(long high, long low) {
+        if (isIPv4(high, low)) {
+            return ((low >>> 24) & 0xFF) + "." + ((low >>> 16) & 0xFF) + "." + ((low >>> 8) & 0xFF) + "." + (low & 0xFF);
+        }
+
+        int[] groups = new int[8];
+        for (int g = 0; g < 4; g++) {
+            groups[g] = (int) ((high >>> (48 - 16 * g)) & 0xFFFF);
+            groups[g + 4] = (int) ((low >>> (48 - 16 * g)) & 0xFFFF);
+        }
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int g = 0; g < 8; ) {
+            if (groups[g] != 0) {
+                g++;
+                continue;
+            }
+            int runStart = g;
+            while (g < 8 && groups[g] == 0) {
+                g++;
+            }
+            if (g - runStart > bestLength) {
+                bestStart = runStart;
+                bestLength = g - runStart;
+            }
+        }
+
+        StringBuilder builder = new StringBuilder(39);
+        for (int g = 0; g < 8; g++) {
+            if (g == bestStart) {
+                builder.append("::");
+                g += bestLength - 1;
+                continue;
+            }
+            if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ':') {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(groups[g]));
+        }
+        return builder.toString();
+    }
+}
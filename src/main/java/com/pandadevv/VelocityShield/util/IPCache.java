@@ -1,7 +1,6 @@
 package com.pandadevv.VelocityShield.util;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.pandadevv.VelocityShield.VelocityShield;
 
@@ -10,28 +9,80 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class IPCache {
-    private final Map<String, CacheEntry> cache;
-    private final long cacheDuration;
-    private final TimeUnit cacheTimeUnit;
-    private final Path cacheFile;
-    private final Gson gson;
-    
-    private static final int MAX_CACHE_SIZE = 10000;
-    private final AtomicInteger currentCacheSize = new AtomicInteger(0);
-    
+    /**
+     * Outcome of a cache lookup. Stale verdicts are past their TTL but inside the grace window;
+     * prefix verdicts were inferred from other addresses in the same network prefix.
+     */
+    public enum Lookup {
+        MISS, CLEAN, VPN, STALE_CLEAN, STALE_VPN, PREFIX_CLEAN, PREFIX_VPN;
+
+        public boolean isVPN() {
+            return this == VPN || this == STALE_VPN || this == PREFIX_VPN;
+        }
+
+        public boolean isPrefix() {
+            return this == PREFIX_CLEAN || this == PREFIX_VPN;
+        }
+
+        public boolean isStale() {
+            return this == STALE_CLEAN || this == STALE_VPN;
+        }
+    }
+
+    private final IPCacheStore cache;
+    private final long vpnTtlMillis;
+    private final long cleanTtlMillis;
+    private final long staleGraceMillis;
+    // Prefix tier: one entry per network prefix tracking which addresses agreed on it, null when disabled
+    private final IPCacheStore prefixCache;
+    private final int prefixV4Length;
+    private final int prefixV6Length;
+    private final int prefixMinAgreeing;
+    // Addresses are told apart by one bit each of a mask this wide, so more than this can never agree
+    private static final int FINGERPRINT_BITS = 31;
+    public static final int MAX_AGREEING = 16;
+    // JSON file written by older versions, migrated into the journal once
+    private final Path legacyCacheFile;
+    private final CacheJournal journal;
+    // Bumped by clearCache under the journal lock, so a compaction that started before a clear is dropped
+    private long clearCount;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
     private final ScheduledExecutorService cleanupExecutor;
     private static final long CLEANUP_INTERVAL = 5;
     private static final TimeUnit CLEANUP_TIME_UNIT = TimeUnit.SECONDS;
 
-    public IPCache(long cacheDuration, TimeUnit cacheTimeUnit, Path dataDirectory) {
-        this.cache = new ConcurrentHashMap<>();
-        this.cacheDuration = cacheDuration;
-        this.cacheTimeUnit = cacheTimeUnit;
-        this.cacheFile = dataDirectory.resolve("ip_cache.json");
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
+    // Journal appends are buffered in memory and written out by the cleanup thread
+    private static final long FLUSH_INTERVAL = 1;
+    private static final TimeUnit FLUSH_TIME_UNIT = TimeUnit.SECONDS;
+    // The journal is compacted once it holds this many records and twice as many as there are live entries
+    private static final long COMPACT_MIN_RECORDS = 10000;
+
+    /**
+     * @param vpnDuration   how long a VPN verdict is fresh
+     * @param cleanDuration how long a clean verdict is fresh
+     * @param staleGrace    how long an expired verdict is still returned as stale before it is dropped
+     * @param prefixV4Length    IPv4 prefix length verdicts are aggregated under
+     * @param prefixV6Length    IPv6 prefix length verdicts are aggregated under
+     * @param prefixMinAgreeing distinct addresses with the same verdict a prefix needs before it answers
+     *                          for unseen addresses, at most {@link #MAX_AGREEING}; 0 disables the prefix tier
+     */
+    public IPCache(long vpnDuration, long cleanDuration, long staleGrace, TimeUnit cacheTimeUnit, int maxSize,
+                   int prefixV4Length, int prefixV6Length, int prefixMinAgreeing, Path dataDirectory) {
+        this.cache = new IPCacheStore(maxSize);
+        this.vpnTtlMillis = cacheTimeUnit.toMillis(vpnDuration);
+        this.cleanTtlMillis = cacheTimeUnit.toMillis(cleanDuration);
+        this.staleGraceMillis = cacheTimeUnit.toMillis(staleGrace);
+        this.prefixCache = prefixMinAgreeing > 0 ? new IPCacheStore(maxSize) : null;
+        this.prefixV4Length = 96 + prefixV4Length;
+        this.prefixV6Length = prefixV6Length;
+        this.prefixMinAgreeing = Math.min(prefixMinAgreeing, MAX_AGREEING);
+        this.legacyCacheFile = dataDirectory.resolve("ip_cache.json");
+        this.journal = new CacheJournal(dataDirectory.resolve("ip_cache.journal"));
         
         this.cleanupExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r, "IPCache-Cleanup");
@@ -46,102 +97,299 @@ public class IPCache {
             CLEANUP_TIME_UNIT
         );
         
+        this.cleanupExecutor.scheduleWithFixedDelay(
+            this::flush,
+            FLUSH_INTERVAL,
+            FLUSH_INTERVAL,
+            FLUSH_TIME_UNIT
+        );
+        
         loadCache();
     }
 
     public void cacheResult(String ip, boolean isVPN) {
-        if (currentCacheSize.get() >= MAX_CACHE_SIZE) {
-            removeOldestEntries(MAX_CACHE_SIZE / 10);
+        long[] key = IPAddressUtil.parse(ip);
+        if (key == null) {
+            return;
         }
-        
         long currentTime = System.currentTimeMillis();
-        cache.put(ip, new CacheEntry(isVPN, currentTime));
-        currentCacheSize.incrementAndGet();
-        saveCache();
+        long entry = pack(isVPN, currentTime);
+        cache.put(key[0], key[1], entry);
+        synchronized (journal) {
+            try {
+                journal.append(key[0], key[1], entry);
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to write IP cache journal", e);
+            }
+        }
+
+        if (prefixCache != null) {
+            int length = prefixLength(key[0], key[1]);
+            long high = IPAddressUtil.maskHigh(key[0], length);
+            long low = IPAddressUtil.maskLow(key[1], length);
+            long previous = prefixCache.get(high, low);
+            // Each address sets its own bit, so repeated verdicts for one address count once. Two addresses
+            // sharing a bit count once too, which only ever makes the prefix wait for more addresses.
+            long addresses = 1L << Long.remainderUnsigned(IPCacheStore.hash(key[0], key[1]), FINGERPRINT_BITS);
+            // Agreeing verdicts build confidence, a disagreeing one starts over
+            if (previous != IPCacheStore.NO_VALUE && isVPN(previous) == isVPN
+                && currentTime - prefixTimestampOf(previous) <= ttlOf(previous)) {
+                addresses |= addressesOf(previous);
+            }
+            prefixCache.put(high, low, packPrefix(isVPN, addresses, currentTime));
+        }
     }
 
-    public Boolean getCachedResult(String ip) {
-        CacheEntry entry = cache.get(ip);
-        if (entry == null) {
-            return null;
+    public Lookup lookup(String ip) {
+        Lookup result = find(ip);
+        if (result == Lookup.MISS) {
+            misses.increment();
+        } else {
+            hits.increment();
         }
+        return result;
+    }
 
-        long currentTime = System.currentTimeMillis();
-        long entryTime = entry.getTimestamp();
-        long durationMillis = cacheTimeUnit.toMillis(cacheDuration);
+    /**
+     * Like {@link #lookup} but not counted as a hit or miss.
+     */
+    public Lookup peek(String ip) {
+        return find(ip);
+    }
 
-        if (currentTime - entryTime > durationMillis) {
-            cache.remove(ip);
-            currentCacheSize.decrementAndGet();
-            saveCache();
-            return null;
+    /**
+     * @return whether the IP has an unexpired exact entry; not counted as a hit or miss
+     */
+    public boolean containsFresh(String ip) {
+        Lookup result = find(ip);
+        return result == Lookup.CLEAN || result == Lookup.VPN;
+    }
+
+    private Lookup find(String ip) {
+        long[] key = IPAddressUtil.parse(ip);
+        if (key == null) {
+            return Lookup.MISS;
+        }
+        long entry = cache.get(key[0], key[1]);
+        if (entry == IPCacheStore.NO_VALUE) {
+            return lookupPrefix(key[0], key[1]);
+        }
+
+        long age = System.currentTimeMillis() - timestampOf(entry);
+        long ttl = ttlOf(entry);
+        boolean vpn = isVPN(entry);
+        if (age <= ttl) {
+            return vpn ? Lookup.VPN : Lookup.CLEAN;
+        }
+        if (age <= ttl + staleGraceMillis) {
+            return vpn ? Lookup.STALE_VPN : Lookup.STALE_CLEAN;
         }
+        // Expired records need no journal entry, they are skipped on load and dropped by compaction
+        cache.remove(key[0], key[1]);
+        return lookupPrefix(key[0], key[1]);
+    }
+
+    private Lookup lookupPrefix(long high, long low) {
+        if (prefixCache == null) {
+            return Lookup.MISS;
+        }
+        int length = prefixLength(high, low);
+        long entry = prefixCache.get(IPAddressUtil.maskHigh(high, length), IPAddressUtil.maskLow(low, length));
+        if (entry == IPCacheStore.NO_VALUE || Long.bitCount(addressesOf(entry)) < prefixMinAgreeing
+            || System.currentTimeMillis() - prefixTimestampOf(entry) > ttlOf(entry)) {
+            return Lookup.MISS;
+        }
+        return isVPN(entry) ? Lookup.PREFIX_VPN : Lookup.PREFIX_CLEAN;
+    }
 
-        return entry.isVPN();
+    private int prefixLength(long high, long low) {
+        return IPAddressUtil.isIPv4(high, low) ? prefixV4Length : prefixV6Length;
     }
 
     public void clearCache() {
-        cache.clear();
-        currentCacheSize.set(0);
-        saveCache();
+        synchronized (journal) {
+            clearCount++;
+            cache.clear();
+            if (prefixCache != null) {
+                prefixCache.clear();
+            }
+            try {
+                journal.compact(cache);
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to clear IP cache journal", e);
+            }
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public int prefixSize() {
+        return prefixCache == null ? 0 : prefixCache.size();
+    }
+
+    /**
+     * @return lookups answered from the cache, including stale and prefix answers
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return entries pushed out of the exact tier because it was full
+     */
+    public long getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    public long getJournalRecordCount() {
+        synchronized (journal) {
+            return journal.getRecordCount();
+        }
+    }
+
+    // Verdict in the lowest bit, timestamp in the remaining 63
+    private static long pack(boolean isVPN, long timestamp) {
+        return (timestamp << 1) | (isVPN ? 1L : 0L);
+    }
+
+    private static long timestampOf(long entry) {
+        return entry >>> 1;
+    }
+
+    private static boolean isVPN(long entry) {
+        return (entry & 1L) != 0;
+    }
+
+    // Prefix entries: verdict in the lowest bit, agreeing addresses' bits in the next 31, timestamp in
+    // seconds in the remaining 32
+    private static long packPrefix(boolean isVPN, long addresses, long timestamp) {
+        return (TimeUnit.MILLISECONDS.toSeconds(timestamp) << 32) | (addresses << 1) | (isVPN ? 1L : 0L);
+    }
+
+    private static long prefixTimestampOf(long entry) {
+        return TimeUnit.SECONDS.toMillis(entry >>> 32);
+    }
+
+    private static long addressesOf(long entry) {
+        return (entry >>> 1) & ((1L << FINGERPRINT_BITS) - 1);
+    }
+
+    private long ttlOf(long entry) {
+        return isVPN(entry) ? vpnTtlMillis : cleanTtlMillis;
     }
 
     private void loadCache() {
-        if (!Files.exists(cacheFile)) {
-            return;
+        long currentTime = System.currentTimeMillis();
+        synchronized (journal) {
+            boolean migrate = !journal.exists() && Files.exists(legacyCacheFile);
+            try {
+                journal.load((high, low, entry) -> {
+                    if (currentTime - timestampOf(entry) <= ttlOf(entry) + staleGraceMillis) {
+                        cache.put(high, low, entry);
+                    } else {
+                        // A later record may have refreshed the entry this one described
+                        cache.remove(high, low);
+                    }
+                });
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to load IP cache journal, starting with an empty cache", e);
+                cache.clear();
+                compact();
+                return;
+            }
+            if (migrate) {
+                migrateLegacyCache(currentTime);
+            }
         }
+    }
 
-        try (Reader reader = Files.newBufferedReader(cacheFile)) {
-            Map<String, CacheEntry> loadedCache = gson.fromJson(reader, new TypeToken<Map<String, CacheEntry>>(){}.getType());
+    private void migrateLegacyCache(long currentTime) {
+        try (Reader reader = Files.newBufferedReader(legacyCacheFile)) {
+            Map<String, CacheEntry> loadedCache = new Gson().fromJson(reader, new TypeToken<Map<String, CacheEntry>>(){}.getType());
             if (loadedCache != null) {
-                cache.putAll(loadedCache);
-                currentCacheSize.set(cache.size());
-                cleanExpiredEntries();
+                for (Map.Entry<String, CacheEntry> entry : loadedCache.entrySet()) {
+                    long[] key = IPAddressUtil.parse(entry.getKey());
+                    if (key == null || entry.getValue() == null) {
+                        continue;
+                    }
+                    long value = pack(entry.getValue().isVPN(), entry.getValue().getTimestamp());
+                    if (currentTime - timestampOf(value) <= ttlOf(value) + staleGraceMillis) {
+                        cache.put(key[0], key[1], value);
+                    }
+                }
             }
-        } catch (IOException e) {
-            VelocityShield.getInstance().getLogger().error("Failed to load IP cache", e);
+            journal.compact(cache);
+            Files.delete(legacyCacheFile);
+            VelocityShield.getInstance().getLogger().info("Migrated " + cache.size() + " IP cache entries from ip_cache.json");
+        } catch (Exception e) {
+            VelocityShield.getInstance().getLogger().error("Failed to migrate IP cache from ip_cache.json", e);
         }
     }
 
-    private void saveCache() {
+    private void flush() {
+        long mark;
+        long clears;
+        synchronized (journal) {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to write IP cache journal", e);
+            }
+            if (journal.getRecordCount() < Math.max(COMPACT_MIN_RECORDS, 2L * cache.size())) {
+                return;
+            }
+            try {
+                mark = journal.startCompaction();
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to compact IP cache journal", e);
+                return;
+            }
+            clears = clearCount;
+        }
+
+        // Writing and syncing the live entries is the slow part, so cacheResult isn't held up by it;
+        // records appended in the meantime are copied over when the new log is swapped in
         try {
-            cleanExpiredEntries();
-            
-            try (Writer writer = Files.newBufferedWriter(cacheFile)) {
-                gson.toJson(cache, writer);
+            long written = journal.writeCompaction(cache);
+            synchronized (journal) {
+                if (clears != clearCount) {
+                    journal.abortCompaction();
+                } else {
+                    journal.finishCompaction(mark, written);
+                }
             }
         } catch (IOException e) {
-            VelocityShield.getInstance().getLogger().error("Failed to save IP cache", e);
+            try {
+                journal.abortCompaction();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            VelocityShield.getInstance().getLogger().error("Failed to compact IP cache journal", e);
         }
     }
 
-    private void cleanExpiredEntries() {
-        long currentTime = System.currentTimeMillis();
-        long durationMillis = cacheTimeUnit.toMillis(cacheDuration);
-        final AtomicInteger removedCount = new AtomicInteger(0);
-        
-        cache.entrySet().removeIf(entry -> {
-            boolean expired = currentTime - entry.getValue().getTimestamp() > durationMillis;
-            if (expired) {
-                currentCacheSize.decrementAndGet();
-                removedCount.incrementAndGet();
-            }
-            return expired;
-        });
-
-        if (removedCount.get() > 0) {
-            saveCache();
+    // Caller holds the journal lock
+    private void compact() {
+        try {
+            journal.compact(cache);
+        } catch (IOException e) {
+            VelocityShield.getInstance().getLogger().error("Failed to compact IP cache journal", e);
         }
     }
 
-    private void removeOldestEntries(int count) {
-        cache.entrySet().stream()
-            .sorted((e1, e2) -> Long.compare(e1.getValue().getTimestamp(), e2.getValue().getTimestamp()))
-            .limit(count)
-            .forEach(entry -> {
-                cache.remove(entry.getKey());
-                currentCacheSize.decrementAndGet();
-            });
+    private void cleanExpiredEntries() {
+        long currentTime = System.currentTimeMillis();
+        // Entries stay through the grace window so they can still be served stale
+        cache.removeIf((high, low, entry) -> currentTime - timestampOf(entry) > ttlOf(entry) + staleGraceMillis);
+        if (prefixCache != null) {
+            prefixCache.removeIf((high, low, entry) -> currentTime - prefixTimestampOf(entry) > ttlOf(entry));
+        }
     }
 
     public void shutdown() {
@@ -154,6 +402,13 @@ public class IPCache {
             cleanupExecutor.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        synchronized (journal) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to close IP cache journal", e);
+            }
+        }
     }
 
     private static class CacheEntry {
@@ -0,0 +1,422 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.util.Arrays;
+
+/**
+ * Bounded open-addressing hash map from a 128-bit address key (see {@link IPAddressUtil}) to a packed long value.
+ * Entries live in parallel primitive arrays, so an entry costs a few dozen bytes and no objects.
+ * The map is split into independently locked segments to keep contention low.
+ * <p>
+ * Each segment evicts with a segmented LRU: new keys enter a probation queue and are promoted to a
+ * protected queue on their first hit. Admission, promotion and eviction are all constant time.
+ */
+public class IPCacheStore {
+    public static final long NO_VALUE = -1L;
+
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    public IPCacheStore(int maxSize) {
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(16, maxSize / MIN_SEGMENT_CAPACITY)));
+        this.segments = new Segment[segmentCount];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+        // Split the bound exactly so the segment capacities add up to maxSize
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    public long get(long high, long low) {
+        long hash = hash(high, low);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            return segment.get(high, low, (int) hash);
+        }
+    }
+
+    public void put(long high, long low, long value) {
+        long hash = hash(high, low);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            segment.put(high, low, value, (int) hash);
+        }
+    }
+
+    public long remove(long high, long low) {
+        long hash = hash(high, low);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            return segment.remove(high, low, (int) hash);
+        }
+    }
+
+    /**
+     * Removes entries matching the predicate, one segment at a time.
+     *
+     * @return the number of entries removed
+     */
+    public int removeIf(EntryPredicate predicate) {
+        int removed = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                removed += segment.removeIf(predicate);
+            }
+        }
+        return removed;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.forEach(consumer);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    public long evictionCount() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                evictions += segment.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    static long hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    public interface EntryConsumer {
+        void accept(long high, long low, long value);
+    }
+
+    public interface EntryPredicate {
+        boolean test(long high, long low, long value);
+    }
+
+    private static final class Segment {
+        private static final int NIL = -1;
+        private static final byte PROBATION = 0;
+        private static final byte PROTECTED = 1;
+
+        private final int maxNodes;
+        private final int maxProtected;
+        // Node storage; index tables point into these arrays so nodes never move
+        private long[] highs;
+        private long[] lows;
+        private long[] values;
+        private int[] hashes;
+        // Doubly linked recency lists; next also chains the free list
+        private int[] prev;
+        private int[] next;
+        private byte[] queue;
+        private int freeHead = NIL;
+        private int allocated;
+        private int size;
+        private long evictions;
+        // Head is the most recently used node, tail the eviction candidate
+        private int probationHead = NIL;
+        private int probationTail = NIL;
+        private int protectedHead = NIL;
+        private int protectedTail = NIL;
+        private int protectedSize;
+        // Slot -> node index + 1, 0 marks an empty slot
+        private int[] table;
+        private int tableMask;
+
+        Segment(int maxNodes) {
+            this.maxNodes = Math.max(1, maxNodes);
+            this.maxProtected = (int) (this.maxNodes * PROTECTED_RATIO);
+            int initial = Math.min(this.maxNodes, MIN_SEGMENT_CAPACITY);
+            this.highs = new long[initial];
+            this.lows = new long[initial];
+            this.values = new long[initial];
+            this.hashes = new int[initial];
+            this.prev = new int[initial];
+            this.next = new int[initial];
+            this.queue = new byte[initial];
+            this.table = new int[tableSizeFor(initial)];
+            this.tableMask = table.length - 1;
+        }
+
+        long get(long high, long low, int hash) {
+            int slot = findSlot(high, low, hash);
+            if (slot < 0) {
+                return NO_VALUE;
+            }
+            int node = table[slot] - 1;
+            onAccess(node);
+            return values[node];
+        }
+
+        void put(long high, long low, long value, int hash) {
+            int slot = findSlot(high, low, hash);
+            if (slot >= 0) {
+                int node = table[slot] - 1;
+                values[node] = value;
+                onAccess(node);
+                return;
+            }
+
+            if (size >= maxNodes) {
+                evict();
+            }
+            int node = allocateNode();
+            highs[node] = high;
+            lows[node] = low;
+            values[node] = value;
+            hashes[node] = hash;
+            size++;
+            if (node >= table.length / 2) {
+                resizeTable();
+            }
+            insertIntoTable(node);
+            queue[node] = PROBATION;
+            linkProbationHead(node);
+        }
+
+        long remove(long high, long low, int hash) {
+            int slot = findSlot(high, low, hash);
+            if (slot < 0) {
+                return NO_VALUE;
+            }
+            int node = table[slot] - 1;
+            long value = values[node];
+            deleteSlot(slot);
+            freeNode(node);
+            return value;
+        }
+
+        int removeIf(EntryPredicate predicate) {
+            int removed = 0;
+            for (int slot = 0; slot < table.length; ) {
+                int entry = table[slot];
+                if (entry != 0) {
+                    int node = entry - 1;
+                    if (predicate.test(highs[node], lows[node], values[node])) {
+                        deleteSlot(slot);
+                        freeNode(node);
+                        removed++;
+                        // Backward shift may have moved another entry into this slot, re-check it
+                        continue;
+                    }
+                }
+                slot++;
+            }
+            return removed;
+        }
+
+        void forEach(EntryConsumer consumer) {
+            for (int entry : table) {
+                if (entry != 0) {
+                    int node = entry - 1;
+                    consumer.accept(highs[node], lows[node], values[node]);
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(table, 0);
+            freeHead = NIL;
+            allocated = 0;
+            size = 0;
+            probationHead = probationTail = NIL;
+            protectedHead = protectedTail = NIL;
+            protectedSize = 0;
+        }
+
+        // A hit in probation earns a place in the protected queue; protected overflow is demoted, not dropped
+        private void onAccess(int node) {
+            if (queue[node] == PROTECTED) {
+                if (protectedHead != node) {
+                    unlink(node);
+                    linkProtectedHead(node);
+                }
+                return;
+            }
+            unlink(node);
+            queue[node] = PROTECTED;
+            linkProtectedHead(node);
+            if (protectedSize > maxProtected) {
+                int demoted = protectedTail;
+                unlink(demoted);
+                queue[demoted] = PROBATION;
+                linkProbationHead(demoted);
+            }
+        }
+
+        // One-shot keys never leave probation, so a flood of them only churns that queue
+        private void evict() {
+            int victim = probationTail != NIL ? probationTail : protectedTail;
+            if (victim == NIL) {
+                return;
+            }
+            deleteSlot(findSlotOf(victim));
+            freeNode(victim);
+            evictions++;
+        }
+
+        private void linkProbationHead(int node) {
+            prev[node] = NIL;
+            next[node] = probationHead;
+            if (probationHead != NIL) {
+                prev[probationHead] = node;
+            } else {
+                probationTail = node;
+            }
+            probationHead = node;
+        }
+
+        private void linkProtectedHead(int node) {
+            prev[node] = NIL;
+            next[node] = protectedHead;
+            if (protectedHead != NIL) {
+                prev[protectedHead] = node;
+            } else {
+                protectedTail = node;
+            }
+            protectedHead = node;
+            protectedSize++;
+        }
+
+        private void unlink(int node) {
+            int before = prev[node];
+            int after = next[node];
+            boolean isProtected = queue[node] == PROTECTED;
+            if (before != NIL) {
+                next[before] = after;
+            } else if (isProtected) {
+                protectedHead = after;
+            } else {
+                probationHead = after;
+            }
+            if (after != NIL) {
+                prev[after] = before;
+            } else if (isProtected) {
+                protectedTail = before;
+            } else {
+                probationTail = before;
+            }
+            if (isProtected) {
+                protectedSize--;
+            }
+        }
+
+        private int findSlot(long high, long low, int hash) {
+            int slot = hash & tableMask;
+            while (true) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    return -1;
+                }
+                int node = entry - 1;
+                if (highs[node] == high && lows[node] == low) {
+                    return slot;
+                }
+                slot = (slot + 1) & tableMask;
+            }
+        }
+
+        private int findSlotOf(int node) {
+            int slot = hashes[node] & tableMask;
+            while (table[slot] != node + 1) {
+                slot = (slot + 1) & tableMask;
+            }
+            return slot;
+        }
+
+        private int allocateNode() {
+            if (freeHead != NIL) {
+                int node = freeHead;
+                freeHead = next[node];
+                return node;
+            }
+            if (allocated == highs.length) {
+                int capacity = Math.min(maxNodes, highs.length * 2);
+                highs = Arrays.copyOf(highs, capacity);
+                lows = Arrays.copyOf(lows, capacity);
+                values = Arrays.copyOf(values, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+                prev = Arrays.copyOf(prev, capacity);
+                next = Arrays.copyOf(next, capacity);
+                queue = Arrays.copyOf(queue, capacity);
+            }
+            return allocated++;
+        }
+
+        private void freeNode(int node) {
+            unlink(node);
+            next[node] = freeHead;
+            freeHead = node;
+            size--;
+        }
+
+        private void insertIntoTable(int node) {
+            int slot = hashes[node] & tableMask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & tableMask;
+            }
+            table[slot] = node + 1;
+        }
+
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        private void deleteSlot(int slot) {
+            int hole = slot;
+            int probe = (hole + 1) & tableMask;
+            while (table[probe] != 0) {
+                int ideal = hashes[table[probe] - 1] & tableMask;
+                if (((probe - ideal) & tableMask) >= ((probe - hole) & tableMask)) {
+                    table[hole] = table[probe];
+                    hole = probe;
+                }
+                probe = (probe + 1) & tableMask;
+            }
+            table[hole] = 0;
+        }
+
+        private void resizeTable() {
+            int[] old = table;
+            table = new int[old.length * 2];
+            tableMask = table.length - 1;
+            for (int entry : old) {
+                if (entry != 0) {
+                    insertIntoTable(entry - 1);
+                }
+            }
+        }
+
+        private static int tableSizeFor(int nodes) {
+            return Integer.highestOneBit(Math.max(2, nodes) - 1) << 2;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Approximate top-K of the IPs that log in most often (Space-Saving): at most {@code capacity} counters are
+ * kept, and a new IP takes over the smallest counter, inheriting its count. Frequent IPs therefore stay in
+ * the sketch while one-time IPs keep replacing each other at the bottom. The inherited part of each count
+ * is kept as its error, so {@code count - error} is a lower bound on how often the IP was really seen.
+ * <p>
+ * Counters are kept in a Stream-Summary: a list of buckets of equal count in ascending order, each holding
+ * its counters in a linked list. Incrementing moves a counter to the neighbouring bucket and the smallest
+ * counter is the head of the first bucket, so recording is constant time at any capacity.
+ * <p>
+ * Persisted as (big-endian) magic, version, entry count, then {ip (modified UTF-8), count, error, lastSeen}
+ * per entry, written to a temp file and moved into place.
+ */
+public class IPFrequencySketch {
+    private static final int MAGIC = 0x56534849; // "VSHI"
+    private static final int VERSION = 2;
+    // Version 1 files have no error field
+    private static final int VERSION_WITHOUT_ERROR = 1;
+
+    private final int capacity;
+    // Changed under the lock; concurrent so contains() can be called without it
+    private final Map<String, Node> counters = new ConcurrentHashMap<>();
+    // Bucket with the smallest count, null while empty
+    private Bucket smallest;
+
+    public IPFrequencySketch(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void record(String ip) {
+        if (capacity <= 0) {
+            return;
+        }
+        Node node = counters.get(ip);
+        if (node != null) {
+            increment(node);
+        } else if (counters.size() < capacity) {
+            node = new Node(ip);
+            // Every count is at least 1, so a bucket for 1 can only be the first one
+            if (smallest == null || smallest.count != 1) {
+                insertAfter(null, new Bucket(1));
+            }
+            smallest.add(node);
+            counters.put(ip, node);
+        } else {
+            node = smallest.head;
+            counters.remove(node.ip);
+            node.ip = ip;
+            node.error = smallest.count;
+            increment(node);
+            counters.put(ip, node);
+        }
+        node.lastSeen = System.currentTimeMillis();
+    }
+
+    private void increment(Node node) {
+        Bucket bucket = node.bucket;
+        long count = bucket.count + 1;
+        Bucket next = bucket.next;
+        if (next != null && next.count == count) {
+            remove(node);
+            next.add(node);
+        } else if (bucket.head == node && node.next == null) {
+            // Alone in its bucket and the next one is higher still, so the bucket can move up with it
+            bucket.count = count;
+        } else {
+            Bucket created = new Bucket(count);
+            insertAfter(bucket, created);
+            remove(node);
+            created.add(node);
+        }
+    }
+
+    // Inserts at the front when previous is null
+    private void insertAfter(Bucket previous, Bucket bucket) {
+        Bucket next = previous == null ? smallest : previous.next;
+        bucket.prev = previous;
+        bucket.next = next;
+        if (next != null) {
+            next.prev = bucket;
+        }
+        if (previous == null) {
+            smallest = bucket;
+        } else {
+            previous.next = bucket;
+        }
+    }
+
+    // Unlinks the node from its bucket and drops the bucket if that left it empty
+    private void remove(Node node) {
+        Bucket bucket = node.bucket;
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            bucket.head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.bucket = null;
+        if (bucket.head == null) {
+            if (bucket.prev != null) {
+                bucket.prev.next = bucket.next;
+            } else {
+                smallest = bucket.next;
+            }
+            if (bucket.next != null) {
+                bucket.next.prev = bucket.prev;
+            }
+        }
+    }
+
+    /**
+     * @return whether the IP is currently among the tracked frequent IPs
+     */
+    public boolean contains(String ip) {
+        return counters.containsKey(ip);
+    }
+
+    /**
+     * @return whether the IP was recorded at least twice even if its whole inherited error was other IPs,
+     *         so a stream of one-time IPs can't make an IP trusted by taking over a large counter
+     */
+    public synchronized boolean isTrusted(String ip) {
+        Node node = counters.get(ip);
+        return node != null && node.bucket.count - node.error >= 2;
+    }
+
+    /**
+     * @return up to {@code limit} IPs seen within {@code maxAgeMillis}, most frequent first
+     */
+    public synchronized List<String> top(int limit, long maxAgeMillis) {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        List<Node> recent = new ArrayList<>();
+        for (Node node : counters.values()) {
+            if (node.lastSeen >= cutoff) {
+                recent.add(node);
+            }
+        }
+        recent.sort((a, b) -> Long.compare(b.bucket.count, a.bucket.count));
+        List<String> result = new ArrayList<>(Math.min(limit, recent.size()));
+        for (int i = 0; i < recent.size() && i < limit; i++) {
+            result.add(recent.get(i).ip);
+        }
+        return result;
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * Replaces the contents with the entries in {@code file}, keeping the most frequent ones if it holds more
+     * than the capacity. A missing file leaves the sketch empty.
+     */
+    public synchronized void load(Path file) throws IOException {
+        counters.clear();
+        smallest = null;
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<Entry> loaded = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_ERROR) {
+                throw new IOException("Not a VelocityShield frequency file: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String ip = in.readUTF();
+                long ipCount = in.readLong();
+                // Without a recorded error, assume all but one of the logins may have been inherited
+                long error = version == VERSION ? in.readLong() : ipCount - 1;
+                long lastSeen = in.readLong();
+                if (ipCount > 0) {
+                    loaded.add(new Entry(ip, ipCount, Math.max(0, Math.min(error, ipCount - 1)), lastSeen));
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Frequency file is truncated: " + file, e);
+        }
+        loaded.sort((a, b) -> Long.compare(b.count, a.count));
+        Bucket last = null;
+        for (int i = Math.min(loaded.size(), capacity) - 1; i >= 0; i--) {
+            Entry entry = loaded.get(i);
+            if (counters.containsKey(entry.ip)) {
+                continue;
+            }
+            if (last == null || last.count != entry.count) {
+                Bucket bucket = new Bucket(entry.count);
+                insertAfter(last, bucket);
+                last = bucket;
+            }
+            Node node = new Node(entry.ip);
+            node.error = entry.error;
+            node.lastSeen = entry.lastSeen;
+            last.add(node);
+            counters.put(entry.ip, node);
+        }
+    }
+
+    /**
+     * Writes the entries seen within {@code maxAgeMillis}; older ones are left out of the file.
+     */
+    public void save(Path file, long maxAgeMillis) throws IOException {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        List<Entry> entries = new ArrayList<>();
+        synchronized (this) {
+            for (Node node : counters.values()) {
+                if (node.lastSeen >= cutoff) {
+                    entries.add(new Entry(node.ip, node.bucket.count, node.error, node.lastSeen));
+                }
+            }
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.ip);
+                out.writeLong(entry.count);
+                out.writeLong(entry.error);
+                out.writeLong(entry.lastSeen);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class Bucket {
+        long count;
+        Node head;
+        Bucket prev;
+        Bucket next;
+
+        Bucket(long count) {
+            this.count = count;
+        }
+
+        void add(Node node) {
+            node.bucket = this;
+            node.prev = null;
+            node.next = head;
+            if (head != null) {
+                head.prev = node;
+            }
+            head = node;
+        }
+    }
+
+    private static final class Node {
+        String ip;
+        // Count inherited from the counter this one took over
+        long error;
+        long lastSeen;
+        Bucket bucket;
+        Node prev;
+        Node next;
+
+        Node(String ip) {
+            this.ip = ip;
+        }
+    }
+
+    private static final class Entry {
+        final String ip;
+        final long count;
+        final long error;
+        final long lastSeen;
+
+        Entry(String ip, long count, long error, long lastSeen) {
+            this.ip = ip;
+            this.count = count;
+            this.error = error;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram. It keeps two views: cumulative totals that only ever grow (for export),
+ * and a recent view whose counts are halved every {@link #DECAY_INTERVAL_MILLIS}, so percentiles follow
+ * current behaviour rather than the whole uptime.
+ */
+public class LatencyHistogram {
+    /** Bucket upper bounds in microseconds; the last bucket is unbounded. */
+    private static final long[] BOUNDS_MICROS = {
+        50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000,
+        250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000
+    };
+    private static final long DECAY_INTERVAL_MILLIS = 30_000;
+
+    private final LongAdder[] totals = new LongAdder[BOUNDS_MICROS.length + 1];
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLongArray recent = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+    private final AtomicLong lastDecay = new AtomicLong(System.currentTimeMillis());
+
+    public LatencyHistogram() {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new LongAdder();
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos));
+        int bucket = bucketFor(micros);
+        totals[bucket].increment();
+        totalMicros.add(micros);
+        recent.incrementAndGet(bucket);
+        maybeDecay();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound in microseconds of the bucket holding the percentile of recent samples,
+     *         or -1 if there are fewer than {@code minSamples} recent samples
+     */
+    public long percentileMicros(double percentile, long minSamples) {
+        maybeDecay();
+        long count = 0;
+        for (int i = 0; i < recent.length(); i++) {
+            count += recent.get(i);
+        }
+        if (count == 0 || count < minSamples) {
+            return -1L;
+        }
+        long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < recent.length(); i++) {
+            seen += recent.get(i);
+            if (seen >= rank && seen > 0) {
+                return i < BOUNDS_MICROS.length ? BOUNDS_MICROS[i] : BOUNDS_MICROS[BOUNDS_MICROS.length - 1] * 2;
+            }
+        }
+        return BOUNDS_MICROS[BOUNDS_MICROS.length - 1] * 2;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder total : totals) {
+            count += total.sum();
+        }
+        return count;
+    }
+
+    public long getSumMicros() {
+        return totalMicros.sum();
+    }
+
+    /**
+     * @return cumulative count of samples at or below each bound in {@link #getBoundsMicros()}, plus the overall count last
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[totals.length];
+        long running = 0;
+        for (int i = 0; i < totals.length; i++) {
+            running += totals[i].sum();
+            cumulative[i] = running;
+        }
+        return cumulative;
+    }
+
+    public static long[] getBoundsMicros() {
+        return BOUNDS_MICROS.clone();
+    }
+
+    private void maybeDecay() {
+        long now = System.currentTimeMillis();
+        long last = lastDecay.get();
+        if (now - last >= DECAY_INTERVAL_MILLIS && lastDecay.compareAndSet(last, now)) {
+            for (int i = 0; i < recent.length(); i++) {
+                long value;
+                do {
+                    value = recent.get(i);
+                } while (!recent.compareAndSet(i, value, value >> 1));
+            }
+        }
+    }
+
+    private static int bucketFor(long micros) {
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            if (micros <= BOUNDS_MICROS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS_MICROS.length;
+    }
+}
@@ -0,0 +1,89 @@
+package com.pandadevv.VelocityShield.util;
+
+import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
+import com.pandadevv.VelocityShield.config.PluginConfig;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a login from an IP goes through: whitelist, VPN check, detection log, and counting
+ * confirmed-clean logins towards the frequent joiners. Knows nothing about the proxy, so the login handler
+ * and the login storm load test run the same decision; permission bypass and kicking stay with the caller.
+ */
+public class LoginGate {
+    public enum Outcome {
+        WHITELISTED, ALLOWED, BLOCKED
+    }
+
+    private final PluginConfig config;
+    private final VPNChecker vpnChecker;
+    private final CacheWarmer cacheWarmer;
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder whitelisted = new LongAdder();
+    // Time from the login to the verdict for logins that were actually checked
+    private final LatencyHistogram checkLatency = new LatencyHistogram();
+
+    public LoginGate(PluginConfig config, VPNChecker vpnChecker, CacheWarmer cacheWarmer) {
+        this.config = config;
+        this.vpnChecker = vpnChecker;
+        this.cacheWarmer = cacheWarmer;
+    }
+
+    /**
+     * @param settings the snapshot the caller read, so the whole decision sees one consistent config
+     */
+    public CompletableFuture<Outcome> check(ConfigSnapshot settings, String username, String ip) {
+        if (settings.isIPWhitelisted(ip)) {
+            whitelisted.increment();
+            if (settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().info("IP {} is whitelisted, skipping VPN check", ip);
+            }
+            return CompletableFuture.completedFuture(Outcome.WHITELISTED);
+        }
+
+        if (settings.isEnableDebug()) {
+            VelocityShield.getInstance().getLogger().info("Player {} connecting from IP: {}", username, ip);
+        }
+
+        long start = System.nanoTime();
+        return vpnChecker.check(ip).thenApply(verdict -> {
+            checkLatency.recordNanos(System.nanoTime() - start);
+            if (verdict.isVPN()) {
+                blocked.increment();
+                if (settings.isEnableDebug()) {
+                    VelocityShield.getInstance().getLogger().info("VPN detected for player {} (IP: {})", username, ip);
+                }
+                config.logVPNDetection(username, ip);
+                return Outcome.BLOCKED;
+            }
+            allowed.increment();
+            // Fail-open verdicts would let flood IPs become trusted frequent joiners
+            if (verdict.isConfirmed()) {
+                cacheWarmer.recordLogin(ip);
+            }
+            if (settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().info("No VPN detected for player {} (IP: {})", username, ip);
+            }
+            return Outcome.ALLOWED;
+        });
+    }
+
+    public long getAllowedCount() {
+        return allowed.sum();
+    }
+
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    public long getWhitelistedCount() {
+        return whitelisted.sum();
+    }
+
+    public LatencyHistogram getCheckLatency() {
+        return checkLatency;
+    }
+}
@@ -0,0 +1,277 @@
+package com.pandadevv.VelocityShield.util;
+
+import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
+import com.pandadevv.VelocityShield.provider.VpnProvider;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the plugin's counters, gauges and latency histograms in the Prometheus text format, and
+ * optionally serves them over a local HTTP endpoint and/or writes them to a file on an interval.
+ * Rendering only sums the counters, so scraping never contends with the login path.
+ */
+public class MetricsExporter {
+    private static final String FILE_NAME = "metrics.prom";
+
+    private final VelocityShield plugin;
+    private HttpServer httpServer;
+    private ScheduledExecutorService fileExecutor;
+
+    public MetricsExporter(VelocityShield plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts whichever outputs are enabled in the config. Does nothing for outputs that are disabled.
+     */
+    public synchronized void start() {
+        ConfigSnapshot config = plugin.getConfig().getSnapshot();
+        if (config.getMetricsPort() > 0) {
+            try {
+                httpServer = HttpServer.create(new InetSocketAddress(config.getMetricsBindAddress(), config.getMetricsPort()), 0);
+                httpServer.createContext("/metrics", this::handle);
+                httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "VelocityShield-Metrics");
+                    t.setDaemon(true);
+                    return t;
+                }));
+                httpServer.start();
+                plugin.getLogger().info("Serving metrics on http://" + config.getMetricsBindAddress() + ":"
+                    + config.getMetricsPort() + "/metrics");
+            } catch (IOException | IllegalArgumentException e) {
+                httpServer = null;
+                plugin.getLogger().error("Failed to start metrics endpoint on port " + config.getMetricsPort(), e);
+            }
+        }
+        if (config.getMetricsFileInterval() > 0) {
+            fileExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "VelocityShield-MetricsFile");
+                t.setDaemon(true);
+                return t;
+            });
+            fileExecutor.scheduleWithFixedDelay(this::writeFile, config.getMetricsFileInterval(),
+                config.getMetricsFileInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the outputs and starts them again from the current config.
+     */
+    public synchronized void restart() {
+        shutdown();
+        start();
+    }
+
+    public synchronized void shutdown() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            ((ExecutorService) httpServer.getExecutor()).shutdown();
+            httpServer = null;
+        }
+        if (fileExecutor != null) {
+            fileExecutor.shutdown();
+            fileExecutor = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void writeFile() {
+        Path file = plugin.getDataDirectory().resolve(FILE_NAME);
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.writeString(temp, render());
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().error("Failed to write " + file, e);
+        }
+    }
+
+    public String render() {
+        VPNChecker checker = plugin.getVpnChecker();
+        IPCache cache = checker.getCache();
+        StringBuilder out = new StringBuilder(8192);
+
+        header(out, "velocityshield_logins_total", "counter", "Logins handled, by outcome");
+        sample(out, "velocityshield_logins_total", "outcome=\"allowed\"", plugin.getLoginsAllowed());
+        sample(out, "velocityshield_logins_total", "outcome=\"blocked\"", plugin.getLoginsBlocked());
+        sample(out, "velocityshield_logins_total", "outcome=\"rejected_early\"", plugin.getLoginsRejectedEarly());
+        sample(out, "velocityshield_logins_total", "outcome=\"bypassed\"", plugin.getLoginsBypassed());
+        sample(out, "velocityshield_logins_total", "outcome=\"whitelisted\"", plugin.getLoginsWhitelisted());
+        histogram(out, "velocityshield_login_check_seconds", "Time from login to VPN verdict", null, plugin.getLoginCheckLatency());
+
+        header(out, "velocityshield_cache_lookups_total", "counter", "IP cache lookups, by result");
+        sample(out, "velocityshield_cache_lookups_total", "result=\"hit\"", cache.getHitCount());
+        sample(out, "velocityshield_cache_lookups_total", "result=\"miss\"", cache.getMissCount());
+        counter(out, "velocityshield_cache_stale_hits_total", "Cache hits answered from an expired verdict", checker.getStaleCacheHits());
+        counter(out, "velocityshield_cache_prefix_hits_total", "Cache hits answered from the prefix tier", checker.getPrefixCacheHits());
+        counter(out, "velocityshield_cache_evictions_total", "Entries evicted because the cache was full", cache.getEvictionCount());
+        gauge(out, "velocityshield_cache_entries", "Exact entries in the IP cache", cache.size());
+        gauge(out, "velocityshield_cache_prefix_entries", "Entries in the prefix tier", cache.prefixSize());
+        gauge(out, "velocityshield_cache_journal_records", "Records in the cache journal", cache.getJournalRecordCount());
+
+        RangeDatabase database = checker.getRangeDatabase();
+        counter(out, "velocityshield_range_database_hits_total", "Logins matched by the local range database", checker.getRangeDatabaseHits());
+        gauge(out, "velocityshield_range_database_ranges", "Ranges in the loaded local range database", database == null ? 0 : database.size());
+
+        counter(out, "velocityshield_remote_lookups_total", "Lookups sent to the detection services", checker.getRemoteLookups());
+        counter(out, "velocityshield_remote_lookup_failures_total", "Remote lookups that ended without a verdict", checker.getFailedLookups());
+        counter(out, "velocityshield_coalesced_requests_total", "Checks that joined a lookup already in flight", checker.getCoalescedRequests());
+        counter(out, "velocityshield_hedged_requests_total", "Lookups hedged to the fallback service", checker.getHedgedRequests());
+        gauge(out, "velocityshield_in_flight_lookups", "Remote lookups currently running", checker.getInFlightCount());
+        counter(out, "velocityshield_saturated_lookups_total", "Lookups answered by lookup-saturation-policy because too many were running", checker.getSaturatedLookups());
+        gauge(out, "velocityshield_lookup_permits_used", "Lookup slots in use out of max-concurrent-lookups", checker.getActiveLookups());
+        gauge(out, "velocityshield_lookup_permits_max", "Configured max-concurrent-lookups", checker.getMaxConcurrentLookups());
+        histogram(out, "velocityshield_remote_lookup_seconds", "Time to complete a remote lookup", null, checker.getLookupLatency());
+
+        OverloadController overload = checker.getOverloadController();
+        gauge(out, "velocityshield_overload_mode", "1 while overload protection answers from cache and local data only", overload.isDegraded() ? 1 : 0);
+        counter(out, "velocityshield_overload_mode_changes_total", "Switches into and out of overload mode", overload.getModeChanges());
+        counter(out, "velocityshield_overload_unknown_verdicts_total", "Unknown IPs answered by overload-unknown-verdict", overload.getDegradedVerdicts());
+        counter(out, "velocityshield_overload_priority_lookups_total", "Known-good IPs still looked up during overload", overload.getPriorityLookups());
+
+        CacheWarmer warmer = plugin.getCacheWarmer();
+        counter(out, "velocityshield_warmup_lookups_total", "Lookups started by cache warm-up", warmer.getPrefetchedCount());
+        counter(out, "velocityshield_warmup_skipped_total", "Warm-up IPs that were already cached", warmer.getSkippedCount());
+        gauge(out, "velocityshield_warmup_queue_depth", "IPs waiting to be warmed up", warmer.getQueuedCount());
+        gauge(out, "velocityshield_warmup_tracked_ips", "Frequent joiner IPs tracked for warm-up", warmer.getTrackedCount());
+
+        gauge(out, "velocityshield_executor_queue_depth", "Tasks waiting for a lookup thread", checker.getExecutorQueueSize());
+        gauge(out, "velocityshield_executor_active_threads", "Lookup threads currently busy", checker.getExecutorActiveCount());
+
+        header(out, "velocityshield_provider_request_seconds", "histogram", "Provider response times; timed-out requests are recorded at their timeout");
+        for (VpnProvider provider : checker.getProviders()) {
+            histogramSamples(out, "velocityshield_provider_request_seconds", providerLabel(provider), provider.getLatency());
+        }
+        header(out, "velocityshield_provider_timeouts_total", "counter", "Provider requests that timed out");
+        for (VpnProvider provider : checker.getProviders()) {
+            sample(out, "velocityshield_provider_timeouts_total", providerLabel(provider), provider.getTimeoutCount());
+        }
+        header(out, "velocityshield_provider_errors_total", "counter", "Provider checks that failed with an error");
+        for (VpnProvider provider : checker.getProviders()) {
+            sample(out, "velocityshield_provider_errors_total", providerLabel(provider), provider.getErrorCount());
+        }
+        header(out, "velocityshield_provider_circuit_state", "gauge", "Circuit breaker state: 0 closed, 1 half open, 2 open");
+        for (VpnProvider provider : checker.getProviders()) {
+            CircuitBreaker.State state = provider.getCircuitBreaker().getState();
+            sample(out, "velocityshield_provider_circuit_state", providerLabel(provider),
+                state == CircuitBreaker.State.CLOSED ? 0 : state == CircuitBreaker.State.HALF_OPEN ? 1 : 2);
+        }
+        header(out, "velocityshield_rate_limit_delayed_total", "counter", "Requests that waited for a rate limit permit");
+        for (VpnProvider provider : checker.getProviders()) {
+            sample(out, "velocityshield_rate_limit_delayed_total", providerLabel(provider), provider.getRateLimiter().getDelayedPermits());
+        }
+        header(out, "velocityshield_rate_limit_rejected_total", "counter", "Requests refused by the rate limit");
+        for (VpnProvider provider : checker.getProviders()) {
+            sample(out, "velocityshield_rate_limit_rejected_total", providerLabel(provider), provider.getRateLimiter().getRejectedPermits());
+        }
+        header(out, "velocityshield_rate_limit_wait_seconds_total", "counter", "Time spent waiting for rate limit permits");
+        for (VpnProvider provider : checker.getProviders()) {
+            sample(out, "velocityshield_rate_limit_wait_seconds_total", providerLabel(provider),
+                provider.getRateLimiter().getWaitNanos() / 1e9);
+        }
+        header(out, "velocityshield_rate_limit_tokens", "gauge", "Rate limit permits currently available");
+        for (VpnProvider provider : checker.getProviders()) {
+            sample(out, "velocityshield_rate_limit_tokens", providerLabel(provider), provider.getRateLimiter().getAvailableTokens());
+        }
+
+        DetectionLogWriter detectionLog = plugin.getConfig().getDetectionLog();
+        counter(out, "velocityshield_detection_log_dropped_total", "Detection log lines dropped because the queue was full", detectionLog.getDroppedCount());
+        gauge(out, "velocityshield_detection_log_queue_depth", "Detection log lines waiting to be written", detectionLog.getQueuedCount());
+        return out.toString();
+    }
+
+    private static String providerLabel(VpnProvider provider) {
+        return "provider=\"" + provider.getName() + "\"";
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        sample(out, name, null, value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, "gauge", help);
+        sample(out, name, null, value);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        appendName(out, name, labels).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        appendName(out, name, labels).append(' ').append(formatDouble(value)).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, String labels, LatencyHistogram histogram) {
+        header(out, name, "histogram", help);
+        histogramSamples(out, name, labels, histogram);
+    }
+
+    private static void histogramSamples(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] bounds = LatencyHistogram.getBoundsMicros();
+        long[] cumulative = histogram.getCumulativeCounts();
+        String prefix = labels == null ? "" : labels + ",";
+        for (int i = 0; i < bounds.length; i++) {
+            sample(out, name + "_bucket", prefix + "le=\"" + formatDouble(bounds[i] / 1e6) + "\"", cumulative[i]);
+        }
+        long count = cumulative[cumulative.length - 1];
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", count);
+        sample(out, name + "_sum", labels, histogram.getSumMicros() / 1e6);
+        sample(out, name + "_count", labels, count);
+    }
+
+    private static StringBuilder appendName(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        return out;
+    }
+
+    private static String formatDouble(double value) {
+        String text = String.format(Locale.ROOT, "%.6f", value);
+        // Trim trailing zeros so bucket bounds read as 0.00005 rather than 0.000050
+        text = text.replaceAll("0+$", "");
+        return text.endsWith(".") ? text + "0" : text;
+    }
+}
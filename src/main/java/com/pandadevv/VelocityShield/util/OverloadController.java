@@ -0,0 +1,146 @@
+package com.pandadevv.VelocityShield.util;
+
+import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
+import com.pandadevv.VelocityShield.config.PluginConfig;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Switches {@link VPNChecker} into a degraded mode during login floods. Once a second it looks at the
+ * remote lookups in flight and the average time of lookups finished in that second; if either reaches its
+ * threshold the checker stops starting remote lookups except for trusted frequent joiners, and answers
+ * everything else from the cache and local data. Normal mode returns only after both signals stayed below
+ * half their threshold for overload-recover-seconds in a row, so the mode doesn't flap at the edge.
+ */
+public class OverloadController {
+    public enum Mode { NORMAL, DEGRADED }
+
+    private final PluginConfig config;
+    private final IntSupplier pendingLookups;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder windowLookups = new LongAdder();
+    private final LongAdder windowNanos = new LongAdder();
+    private final LongAdder modeChanges = new LongAdder();
+    private final LongAdder degradedVerdicts = new LongAdder();
+    private final LongAdder priorityLookups = new LongAdder();
+
+    private volatile Mode mode = Mode.NORMAL;
+    private volatile int lastPending;
+    private volatile long lastLatencyMs;
+    // Only touched by the scheduler thread
+    private int calmSeconds;
+    private long degradedSince;
+
+    /**
+     * @param pendingLookups remote lookups currently in flight
+     */
+    public OverloadController(PluginConfig config, IntSupplier pendingLookups) {
+        this.config = config;
+        this.pendingLookups = pendingLookups;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "VelocityShield-Overload");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleAtFixedRate(this::evaluate, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void recordLookup(long nanos) {
+        windowLookups.increment();
+        windowNanos.add(nanos);
+    }
+
+    private void evaluate() {
+        long lookups = windowLookups.sumThenReset();
+        long nanos = windowNanos.sumThenReset();
+        int pending = pendingLookups.getAsInt();
+        long latencyMs = lookups == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos / lookups);
+        lastPending = pending;
+        lastLatencyMs = latencyMs;
+
+        ConfigSnapshot settings = config.getSnapshot();
+        if (mode == Mode.NORMAL) {
+            if (settings.isEnableOverloadProtection() && (pending >= settings.getOverloadPendingLookups()
+                    || latencyMs >= settings.getOverloadLatencyMs())) {
+                mode = Mode.DEGRADED;
+                modeChanges.increment();
+                calmSeconds = 0;
+                degradedSince = System.nanoTime();
+                VelocityShield.getInstance().getLogger().warn("Login flood detected (" + pending + " lookups pending, "
+                    + latencyMs + "ms average lookup time), answering from cache and local data only; unknown IPs are "
+                    + (settings.isOverloadUnknownAllow() ? "allowed" : "blocked"));
+            }
+            return;
+        }
+
+        if (pending < settings.getOverloadPendingLookups() / 2 && latencyMs < settings.getOverloadLatencyMs() / 2) {
+            calmSeconds++;
+        } else {
+            calmSeconds = 0;
+        }
+        if (!settings.isEnableOverloadProtection() || calmSeconds >= settings.getOverloadRecoverSeconds()) {
+            mode = Mode.NORMAL;
+            modeChanges.increment();
+            VelocityShield.getInstance().getLogger().info("Login load back to normal after "
+                + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - degradedSince) + "s, resuming remote lookups ("
+                + degradedVerdicts.sum() + " unknown IPs answered while degraded since startup)");
+        }
+    }
+
+    public boolean isDegraded() {
+        return mode == Mode.DEGRADED;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    void recordDegradedVerdict() {
+        degradedVerdicts.increment();
+    }
+
+    void recordPriorityLookup() {
+        priorityLookups.increment();
+    }
+
+    public long getModeChanges() {
+        return modeChanges.sum();
+    }
+
+    /**
+     * @return unknown IPs answered by overload-unknown-verdict instead of a remote lookup
+     */
+    public long getDegradedVerdicts() {
+        return degradedVerdicts.sum();
+    }
+
+    /**
+     * @return remote lookups for trusted frequent joiners let through while degraded
+     */
+    public long getPriorityLookups() {
+        return priorityLookups.sum();
+    }
+
+    /**
+     * @return lookups in flight at the last evaluation
+     */
+    public int getLastPending() {
+        return lastPending;
+    }
+
+    /**
+     * @return average lookup time in the second before the last evaluation, 0 if none finished
+     */
+    public long getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,365 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Read-only database of known datacenter/VPN address ranges, memory-mapped from a compact binary file.
+ * <p>
+ * Layout (big-endian): a header of magic, version and record count, followed by fixed-size records
+ * {startHigh, startLow, endHigh, endLow, asn, flags} sorted by start address with no overlaps, so a
+ * lookup is a binary search over the mapped file. Addresses use the 128-bit keys of {@link IPAddressUtil}.
+ * <p>
+ * A mapped file can't be replaced or deleted on Windows, so imports never overwrite one: each import is
+ * written as a new generation {@code <file>.<n>} next to the configured file, the newest generation is
+ * the one opened, and older ones are deleted once they are no longer in use.
+ */
+public class RangeDatabase {
+    public static final int FLAG_HOSTING = 1;
+    public static final int FLAG_VPN = 1 << 1;
+    public static final int FLAG_PROXY = 1 << 2;
+    public static final int FLAG_TOR = 1 << 3;
+
+    private static final int MAGIC = 0x56535244; // "VSRD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 40;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private RangeDatabase(Path file, ByteBuffer buffer, int count) {
+        this.file = file;
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    public static RangeDatabase open(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Range database is too large: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a VelocityShield range database: " + file);
+            }
+            long count = buffer.getLong(8);
+            if (count < 0 || HEADER_SIZE + count * RECORD_SIZE != buffer.capacity()) {
+                throw new IOException("Range database is truncated: " + file);
+            }
+            return new RangeDatabase(file, buffer, (int) count);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("Range database is truncated: " + file, e);
+        }
+    }
+
+    /**
+     * @return index of the range containing the address, or -1 if none does
+     */
+    public int find(long high, long low) {
+        int lo = 0;
+        int hi = count - 1;
+        int candidate = -1;
+        // Last range starting at or before the address
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int offset = HEADER_SIZE + mid * RECORD_SIZE;
+            if (compare(buffer.getLong(offset), buffer.getLong(offset + 8), high, low) <= 0) {
+                candidate = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (candidate < 0) {
+            return -1;
+        }
+        int offset = HEADER_SIZE + candidate * RECORD_SIZE;
+        return compare(high, low, buffer.getLong(offset + 16), buffer.getLong(offset + 24)) <= 0 ? candidate : -1;
+    }
+
+    /**
+     * @return the autonomous system number of a range, 0 if unknown
+     */
+    public long getAsn(int index) {
+        return Integer.toUnsignedLong(buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + 32));
+    }
+
+    public int getFlags(int index) {
+        return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + 36);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int result = Long.compareUnsigned(high1, high2);
+        return result != 0 ? result : Long.compareUnsigned(low1, low2);
+    }
+
+    /**
+     * Builds a database file from a CSV with one range per line: {@code range[,asn[,type]]}. The range is a
+     * CIDR block or {@code start-end}; the ASN may carry an {@code AS} prefix; the type is one of
+     * {@code hosting} (default), {@code vpn}, {@code proxy} or {@code tor}. Blank lines, {@code #} comments
+     * and lines that fail to parse are skipped. Overlapping ranges are clipped so the output stays disjoint.
+     * The result is written as the next generation of {@code file}, so no database in use is touched.
+     *
+     * @return {rangesWritten, linesSkipped}
+     */
+    public static int[] convert(Path csv, Path file) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csv)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                Range range = parseLine(line);
+                if (range == null) {
+                    skipped++;
+                } else {
+                    ranges.add(range);
+                }
+            }
+        }
+        ranges.sort(Comparator.<Range>comparingLong(r -> r.startHigh ^ Long.MIN_VALUE)
+            .thenComparingLong(r -> r.startLow ^ Long.MIN_VALUE));
+
+        List<Range> disjoint = new ArrayList<>(ranges.size());
+        Range previous = null;
+        for (Range range : ranges) {
+            if (previous != null && compare(range.startHigh, range.startLow, previous.endHigh, previous.endLow) <= 0) {
+                if (compare(range.endHigh, range.endLow, previous.endHigh, previous.endLow) <= 0) {
+                    continue;
+                }
+                // Starts inside the previous range: keep only the part after it
+                range.startLow = previous.endLow + 1;
+                range.startHigh = range.startLow == 0 ? previous.endHigh + 1 : previous.endHigh;
+            }
+            disjoint.add(range);
+            previous = range;
+        }
+        if ((long) disjoint.size() * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+            throw new IOException("Too many ranges for one database file: " + disjoint.size());
+        }
+
+        Path latest = latestGeneration(file);
+        Path output = generationPath(file, latest == null ? 1 : generationOf(file, latest) + 1);
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(disjoint.size());
+            for (Range range : disjoint) {
+                out.writeLong(range.startHigh);
+                out.writeLong(range.startLow);
+                out.writeLong(range.endHigh);
+                out.writeLong(range.endLow);
+                out.writeInt((int) range.asn);
+                out.writeInt(range.flags);
+            }
+        }
+        try {
+            Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, output);
+        }
+        return new int[] {disjoint.size(), skipped};
+    }
+
+    /**
+     * @return the newest generation of {@code file}, {@code file} itself if there are no generations
+     *         but it exists, or null if there is neither
+     */
+    public static Path latestGeneration(Path file) throws IOException {
+        Path latest = Files.exists(file) ? file : null;
+        long latestGeneration = 0;
+        for (Path candidate : generations(file)) {
+            long generation = generationOf(file, candidate);
+            if (generation > latestGeneration) {
+                latest = candidate;
+                latestGeneration = generation;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Deletes every generation of {@code file}, and {@code file} itself, except {@code current}. Files that
+     * can't be deleted yet (still mapped on Windows) are left for a later call.
+     *
+     * @return number of files deleted
+     */
+    public static int deleteOldGenerations(Path file, Path current) throws IOException {
+        List<Path> old = generations(file);
+        old.add(file);
+        int deleted = 0;
+        for (Path path : old) {
+            if (path.equals(current)) {
+                continue;
+            }
+            try {
+                if (Files.deleteIfExists(path)) {
+                    deleted++;
+                }
+            } catch (IOException e) {
+                // Still mapped by a database that hasn't been garbage collected yet
+            }
+        }
+        return deleted;
+    }
+
+    private static List<Path> generations(Path file) throws IOException {
+        List<Path> result = new ArrayList<>();
+        Path directory = file.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, file.getFileName() + ".*")) {
+            for (Path candidate : stream) {
+                if (generationOf(file, candidate) > 0) {
+                    result.add(file.resolveSibling(candidate.getFileName()));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Path generationPath(Path file, long generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+
+    /**
+     * @return the generation number of {@code candidate}, 0 for {@code file} itself or anything that isn't one
+     */
+    private static long generationOf(Path file, Path candidate) {
+        String name = candidate.getFileName().toString();
+        String prefix = file.getFileName() + ".";
+        if (!name.startsWith(prefix) || name.length() == prefix.length() || name.length() - prefix.length() > 18) {
+            return 0;
+        }
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return 0;
+            }
+        }
+        return Long.parseLong(name.substring(prefix.length()));
+    }
+
+    private static Range parseLine(String line) {
+        String[] columns = line.split(",");
+        String rangeText = columns[0].trim();
+        Range range = new Range();
+
+        int dash = rangeText.indexOf('-');
+        if (dash >= 0) {
+            long[] start = IPAddressUtil.parse(rangeText.substring(0, dash).trim());
+            long[] end = IPAddressUtil.parse(rangeText.substring(dash + 1).trim());
+            if (start == null || end == null || compare(start[0], start[1], end[0], end[1]) > 0) {
+                return null;
+            }
+            range.startHigh = start[0];
+            range.startLow = start[1];
+            range.endHigh = end[0];
+            range.endLow = end[1];
+        } else {
+            long[] cidr = IPAddressUtil.parseCidr(rangeText);
+            if (cidr == null) {
+                return null;
+            }
+            int length = (int) cidr[2];
+            range.startHigh = cidr[0];
+            range.startLow = cidr[1];
+            range.endHigh = cidr[0] | ~IPAddressUtil.maskHigh(-1L, length);
+            range.endLow = cidr[1] | ~IPAddressUtil.maskLow(-1L, length);
+        }
+
+        if (columns.length > 1 && !columns[1].isBlank()) {
+            String asn = columns[1].trim();
+            if (asn.regionMatches(true, 0, "AS", 0, 2)) {
+                asn = asn.substring(2);
+            }
+            try {
+                range.asn = Long.parseLong(asn);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (range.asn < 0 || range.asn > 0xFFFFFFFFL) {
+                return null;
+            }
+        }
+
+        range.flags = FLAG_HOSTING;
+        if (columns.length > 2 && !columns[2].isBlank()) {
+            switch (columns[2].trim().toLowerCase()) {
+                case "hosting":
+                    break;
+                case "vpn":
+                    range.flags = FLAG_VPN;
+                    break;
+                case "proxy":
+                    range.flags = FLAG_PROXY;
+                    break;
+                case "tor":
+                    range.flags = FLAG_TOR;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return range;
+    }
+
+    /**
+     * @return a short description of range flags for logs, e.g. "vpn" or "hosting"
+     */
+    public static String describeFlags(int flags) {
+        if ((flags & FLAG_TOR) != 0) {
+            return "tor";
+        }
+        if ((flags & FLAG_VPN) != 0) {
+            return "vpn";
+        }
+        if ((flags & FLAG_PROXY) != 0) {
+            return "proxy";
+        }
+        return "hosting";
+    }
+
+    private static final class Range {
+        long startHigh;
+        long startLow;
+        long endHigh;
+        long endLow;
+        long asn;
+        int flags;
+    }
+}
@@ -0,0 +1,118 @@
+package com.pandadevv.VelocityShield.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket, kept as a single "theoretical arrival time" (GCRA): each permit pushes the
+ * time forward by one emission interval, and a permit may be used once the time is within one
+ * burst of now. Permits are handed out as futures, so callers never sleep while waiting.
+ */
+public class TokenBucket {
+    private final String name;
+    private final double permitsPerSecond;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicLong theoreticalArrival;
+    private final LongAdder delayedPermits = new LongAdder();
+    private final LongAdder rejectedPermits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public TokenBucket(String name, double permitsPerSecond, int burst) {
+        this(name, permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(String name, double permitsPerSecond, int burst, LongSupplier nanoClock) {
+        this.name = name;
+        this.nanoClock = nanoClock;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = (this.burst - 1) * intervalNanos;
+        this.theoreticalArrival = new AtomicLong(nanoClock.getAsLong() - toleranceNanos - intervalNanos);
+    }
+
+    /**
+     * Reserves a permit unless it would only become usable after {@code maxWaitNanos}.
+     *
+     * @return nanoseconds until the reserved permit may be used, or -1 if nothing was reserved
+     */
+    public long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = nanoClock.getAsLong();
+            long current = theoreticalArrival.get();
+            long start = current - now > 0 ? current : now;
+            long wait = Math.max(0L, start - now - toleranceNanos);
+            if (wait > maxWaitNanos) {
+                return -1L;
+            }
+            if (theoreticalArrival.compareAndSet(current, start + intervalNanos)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * @return a future completing with true once a permit is available, or with false right away if
+     *         that would take longer than {@code maxWait}. Delayed permits complete on a timer thread,
+     *         so dependent work should be attached with an async stage on its own executor.
+     */
+    public CompletableFuture<Boolean> acquire(long maxWait, TimeUnit unit) {
+        long wait = reserve(unit.toNanos(maxWait));
+        if (wait <= 0) {
+            if (wait < 0) {
+                rejectedPermits.increment();
+            }
+            return CompletableFuture.completedFuture(wait == 0);
+        }
+        delayedPermits.increment();
+        waitNanos.add(wait);
+        return CompletableFuture.supplyAsync(() -> true, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * @return tokens currently available; negative values count permits already reserved ahead of time
+     */
+    public double getAvailableTokens() {
+        long ahead = theoreticalArrival.get() - nanoClock.getAsLong();
+        return Math.min(burst, (double) (toleranceNanos + intervalNanos - ahead) / intervalNanos);
+    }
+
+    /**
+     * @return permits from {@link #acquire} that had to wait for the bucket to refill
+     */
+    public long getDelayedPermits() {
+        return delayedPermits.sum();
+    }
+
+    /**
+     * @return permits from {@link #acquire} refused because the wait would have been too long
+     */
+    public long getRejectedPermits() {
+        return rejectedPermits.sum();
+    }
+
+    /**
+     * @return total time delayed permits waited, in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+}
@@ -1,200 +1,579 @@
 package com.pandadevv.VelocityShield.util;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.pandadevv.VelocityShield.VelocityShield;
+import com.pandadevv.VelocityShield.config.ConfigSnapshot;
 import com.pandadevv.VelocityShield.config.PluginConfig;
+import com.pandadevv.VelocityShield.provider.IpApiProvider;
+import com.pandadevv.VelocityShield.provider.ProxyCheckProvider;
+import com.pandadevv.VelocityShield.provider.VpnProvider;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.http.HttpClient;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class VPNChecker {
     private final PluginConfig config;
     private final IPCache ipCache;
-    private static final String PROXYCHECK_URL = "http://proxycheck.io/v2/%s?key=%s&vpn=1";
-    private static final String IP_API_URL = "http://ip-api.com/json/%s?fields=status,isp,org,proxy,query";
     private static final int CONNECTION_TIMEOUT = 3000;
-    private static final int READ_TIMEOUT = 3000;
-    private static final int MAX_REQUESTS_PER_SECOND = 10;
-    private final AtomicInteger requestCount = new AtomicInteger(0);
-    private final AtomicLong lastResetTime = new AtomicLong(System.currentTimeMillis());
+    // Upper bound for a whole lookup (main + fallback service), after which waiters get the failure verdict
+    private static final long LOOKUP_TIMEOUT = 15;
+    // Hedge delay used until the primary service has enough recent samples for a percentile
+    private static final long DEFAULT_HEDGE_DELAY_MS = 1000;
+    private static final long MIN_HEDGE_SAMPLES = 20;
     private final ExecutorService executorService;
-    private static final JsonParser jsonParser = new JsonParser();
+    private final boolean virtualThreads;
+    // Caps remote lookups in progress; the executors never reject work, so this is where bursts are turned away
+    private final Semaphore lookupPermits;
+    private final int maxConcurrentLookups;
+    private final LongAdder saturatedLookups = new LongAdder();
+    // IPs a service confirmed as clean on login, persisted by CacheWarmer; trusted ones keep remote lookups during overload
+    private final IPFrequencySketch frequentJoiners;
+    private final OverloadController overloadController;
+    // Shared client so connections are kept alive and reused across lookups
+    private final HttpClient httpClient;
+    private final VpnProvider proxycheckProvider;
+    private final VpnProvider ipApiProvider;
+    private final LongAdder hedgedRequests = new LongAdder();
+    // Lookups currently running, shared by every caller asking about the same IP
+    private final Map<String, CompletableFuture<Verdict>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalescedRequests = new LongAdder();
+    private final Path dataDirectory;
+    // Swapped as a whole on reload; lookups keep using the instance they read
+    private volatile RangeDatabase rangeDatabase;
+    private final LongAdder rangeDatabaseHits = new LongAdder();
+    private final LongAdder staleCacheHits = new LongAdder();
+    private final LongAdder prefixCacheHits = new LongAdder();
+    private final LongAdder remoteLookups = new LongAdder();
+    private final LongAdder failedLookups = new LongAdder();
+    // Time from starting a remote lookup to its verdict, covering fallback and hedging
+    private final LatencyHistogram lookupLatency = new LatencyHistogram();
 
     public VPNChecker(PluginConfig config, Path dataDirectory) {
+        this(config, dataDirectory, ProxyCheckProvider.DEFAULT_ENDPOINT, IpApiProvider.DEFAULT_ENDPOINT);
+    }
+
+    /**
+     * @param proxycheckEndpoint base URL of the proxycheck.io v2 API
+     * @param ipApiEndpoint      ip-api.com URL format with a single {@code %s} for the IP
+     */
+    public VPNChecker(PluginConfig config, Path dataDirectory, String proxycheckEndpoint, String ipApiEndpoint) {
         this.config = config;
-        this.ipCache = new IPCache(config.getCacheDuration(), TimeUnit.valueOf(config.getCacheTimeUnit().toUpperCase()), dataDirectory);
-        this.executorService = new ThreadPoolExecutor(
-            2,
-            4,
-            60L,
-            TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(100),
-            new ThreadPoolExecutor.CallerRunsPolicy()
+        this.dataDirectory = dataDirectory;
+        ConfigSnapshot settings = config.getSnapshot();
+        this.ipCache = new IPCache(
+            settings.getCacheVpnDuration(),
+            settings.getCacheCleanDuration(),
+            settings.getCacheStaleGrace(),
+            TimeUnit.valueOf(settings.getCacheTimeUnit().toUpperCase()),
+            settings.getCacheMaxSize(),
+            settings.getPrefixCacheIpv4Length(),
+            settings.getPrefixCacheIpv6Length(),
+            settings.isEnablePrefixCache() ? settings.getPrefixCacheMinAgreeing() : 0,
+            dataDirectory
         );
+        ExecutorService virtualExecutor = "platform".equalsIgnoreCase(settings.getLookupExecutor()) ? null : newVirtualThreadExecutor();
+        if (virtualExecutor != null) {
+            this.executorService = virtualExecutor;
+        } else {
+            if ("virtual".equalsIgnoreCase(settings.getLookupExecutor())) {
+                VelocityShield.getInstance().getLogger().warn("Virtual threads need Java 21 or newer, using a pool of "
+                    + settings.getLookupThreads() + " lookup threads instead");
+            }
+            AtomicInteger threadCount = new AtomicInteger();
+            // Unbounded queue: lookups are already capped by lookupPermits, and the HTTP client must never have a task rejected
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                settings.getLookupThreads(),
+                settings.getLookupThreads(),
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "VPNChecker-Lookup-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            );
+            pool.allowCoreThreadTimeOut(true);
+            this.executorService = pool;
+        }
+        this.virtualThreads = virtualExecutor != null;
+        this.maxConcurrentLookups = settings.getMaxConcurrentLookups();
+        this.lookupPermits = new Semaphore(maxConcurrentLookups);
+        this.frequentJoiners = new IPFrequencySketch(settings.getWarmupTopIps());
+        this.overloadController = new OverloadController(config, this::getInFlightCount);
+        this.httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(CONNECTION_TIMEOUT))
+            .executor(executorService)
+            .build();
+        this.proxycheckProvider = new ProxyCheckProvider(proxycheckEndpoint, config, httpClient);
+        this.ipApiProvider = new IpApiProvider(ipApiEndpoint, config, httpClient);
+        reloadRangeDatabase();
     }
 
-    public CompletableFuture<Boolean> isVPN(String ip) {
-        return CompletableFuture.supplyAsync(() -> {
-            if (config.isEnableCache()) {
-                Boolean cachedResult = ipCache.getCachedResult(ip);
-                if (cachedResult != null) {
-                    if (config.isEnableDebug()) {
-                        VelocityShield.getInstance().getLogger().info("Using cached result for IP: " + ip + " - VPN: " + cachedResult);
-                    }
-                    return cachedResult;
-                }
-            }
+    /**
+     * @return a virtual-thread-per-task executor, or null on runtimes without virtual threads (before Java 21)
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Looked up reflectively so the plugin still builds for and runs on Java 17
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // Java 19 and 20 have the method but throw unless preview features are enabled
+            return null;
+        }
+    }
 
+    /**
+     * (Re)opens the newest generation of the local range database named in the config and swaps it in, or
+     * unloads it when disabled. A file that fails to open leaves the previously loaded database in place.
+     * Generations older than the one in use are deleted.
+     */
+    public synchronized void reloadRangeDatabase() {
+        ConfigSnapshot settings = config.getSnapshot();
+        if (!settings.isEnableRangeDatabase()) {
+            rangeDatabase = null;
+            return;
+        }
+        Path base = dataDirectory.resolve(settings.getRangeDatabaseFile());
+        Path file;
+        try {
+            file = RangeDatabase.latestGeneration(base);
+        } catch (IOException e) {
+            VelocityShield.getInstance().getLogger().error("Failed to list local range database files for " + base, e);
+            return;
+        }
+        if (file == null) {
+            rangeDatabase = null;
+            if (settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().info("No local range database found at " + base);
+            }
+            return;
+        }
+        RangeDatabase current = rangeDatabase;
+        if (current == null || !current.getFile().equals(file)) {
             try {
-                waitForRateLimit();
-                Boolean mainCheckResult = checkWithMainService(ip);
-                if (mainCheckResult != null) {
-                    if (config.isEnableCache()) {
-                        ipCache.cacheResult(ip, mainCheckResult);
-                    }
-                    return mainCheckResult;
-                }
-                if (config.isEnableFallbackService()) {
-                    waitForRateLimit();
-                    Boolean fallbackResult = checkWithFallbackService(ip);
-                    if (fallbackResult != null) {
-                        if (config.isEnableCache()) {
-                            ipCache.cacheResult(ip, fallbackResult);
-                        }
-                        return fallbackResult;
-                    }
-                }
-                if (config.isAllowJoinOnApiFailure()) {
-                    if (config.isEnableDebug()) {
-                        VelocityShield.getInstance().getLogger().warn("Both VPN checks failed for IP: " + ip + " - Allowing connection due to allow-join-on-api-failure setting");
-                    }
-                    return false;
-                } else {
-                    if (config.isEnableDebug()) {
-                        VelocityShield.getInstance().getLogger().warn("Both VPN checks failed for IP: " + ip + " - Blocking connection due to allow-join-on-api-failure setting");
-                    }
-                    return true;
+                rangeDatabase = RangeDatabase.open(file);
+                VelocityShield.getInstance().getLogger().info("Loaded " + rangeDatabase.size() + " ranges from local range database");
+            } catch (IOException e) {
+                VelocityShield.getInstance().getLogger().error("Failed to load local range database " + file, e);
+                return;
+            }
+        }
+        try {
+            int deleted = RangeDatabase.deleteOldGenerations(base, file);
+            if (deleted > 0 && settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().info("Deleted " + deleted + " old local range database files");
+            }
+        } catch (IOException e) {
+            VelocityShield.getInstance().getLogger().warn("Failed to delete old local range database files for " + base, e);
+        }
+    }
+
+    public Path getRangeDatabasePath() {
+        return dataDirectory.resolve(config.getSnapshot().getRangeDatabaseFile());
+    }
+
+    public RangeDatabase getRangeDatabase() {
+        return rangeDatabase;
+    }
+
+    public long getRangeDatabaseHits() {
+        return rangeDatabaseHits.sum();
+    }
+
+    public CompletableFuture<Boolean> isVPN(String ip) {
+        return check(ip).thenApply(Verdict::isVPN);
+    }
+
+    /**
+     * Like {@link #isVPN} but also tells where the verdict came from.
+     */
+    public CompletableFuture<Verdict> check(String ip) {
+        // One snapshot for the whole decision, so a reload halfway through can't mix old and new settings
+        ConfigSnapshot settings = config.getSnapshot();
+        Verdict local = checkLocal(ip, settings);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
+        }
+        if (overloadController.isDegraded() && !inFlight.containsKey(ip)) {
+            if (!frequentJoiners.isTrusted(ip)) {
+                overloadController.recordDegradedVerdict();
+                if (settings.isEnableDebug()) {
+                    VelocityShield.getInstance().getLogger().info("Overloaded, " + (settings.isOverloadUnknownAllow() ? "allowing" : "blocking")
+                        + " unknown IP: " + ip + " due to overload-unknown-verdict setting");
                 }
-            } catch (Exception e) {
-                VelocityShield.getInstance().getLogger().error("Error checking VPN status for IP: " + ip, e);
-                return config.isAllowJoinOnApiFailure() ? false : true;
+                return CompletableFuture.completedFuture(Verdict.of(!settings.isOverloadUnknownAllow(), Verdict.Source.OVERLOAD));
             }
-        }, executorService);
+            overloadController.recordPriorityLookup();
+        }
+        return lookupCoalesced(ip, settings);
+    }
+
+    /**
+     * Answers from the local range database and the cache only, never waiting on a remote service.
+     * A stale cached verdict is returned and refreshed in the background. The answer is counted in the
+     * cache and range database statistics, so call this only where the login is decided.
+     *
+     * @return the verdict, or null if it takes a remote lookup
+     */
+    public Boolean checkLocal(String ip) {
+        Verdict verdict = checkLocal(ip, config.getSnapshot());
+        return verdict == null ? null : verdict.isVPN();
     }
 
-    private void waitForRateLimit() {
-        long currentTime = System.currentTimeMillis();
-        long lastReset = lastResetTime.get();
-        if (currentTime - lastReset >= 1000) {
-            requestCount.set(0);
-            lastResetTime.set(currentTime);
+    /**
+     * Like {@link #checkLocal} but not counted or logged, and a stale verdict is not refreshed.
+     */
+    public Boolean peekLocal(String ip) {
+        ConfigSnapshot settings = config.getSnapshot();
+        long[] key = IPAddressUtil.parse(ip);
+        RangeDatabase database = rangeDatabase;
+        if (database != null && key != null && database.find(key[0], key[1]) >= 0) {
+            return true;
         }
-        while (requestCount.get() >= MAX_REQUESTS_PER_SECOND) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+        if (settings.isEnableCache()) {
+            IPCache.Lookup cached = ipCache.peek(ip);
+            if (cached != IPCache.Lookup.MISS) {
+                return cached.isVPN();
             }
         }
-        
-        requestCount.incrementAndGet();
+        return null;
     }
 
-    private Boolean checkWithMainService(String ip) {
-        try {
-            String url = config.isUseProxycheckAsPrimary() ? 
-                String.format(PROXYCHECK_URL, ip, config.getProxycheckApiKey()) :
-                String.format(IP_API_URL, ip);
-
-            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(CONNECTION_TIMEOUT);
-            conn.setReadTimeout(READ_TIMEOUT);
-            conn.setRequestProperty("User-Agent", "VelocityShield/1.0");
-
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-                StringBuilder response = new StringBuilder();
-                char[] buffer = new char[1024];
-                int read;
-                while ((read = reader.read(buffer)) != -1) {
-                    response.append(buffer, 0, read);
+    private Verdict checkLocal(String ip, ConfigSnapshot settings) {
+        // Known datacenter/VPN ranges are decided locally without using any API quota
+        RangeDatabase database = rangeDatabase;
+        if (database != null) {
+            long[] key = IPAddressUtil.parse(ip);
+            int match = key == null ? -1 : database.find(key[0], key[1]);
+            if (match >= 0) {
+                rangeDatabaseHits.increment();
+                if (settings.isEnableDebug()) {
+                    VelocityShield.getInstance().getLogger().info("IP " + ip + " is in local range database (AS"
+                        + database.getAsn(match) + ", " + RangeDatabase.describeFlags(database.getFlags(match)) + ")");
                 }
+                return Verdict.of(true, Verdict.Source.RANGE_DATABASE);
+            }
+        }
 
-                JsonObject jsonResponse = jsonParser.parse(response.toString()).getAsJsonObject();
-                
-                if (config.isUseProxycheckAsPrimary()) {
-                    if (jsonResponse.has("status") && jsonResponse.get("status").getAsString().equals("ok")) {
-                        JsonObject ipData = jsonResponse.getAsJsonObject(ip);
-                        if (ipData != null && ipData.has("proxy")) {
-                            return ipData.get("proxy").getAsString().equals("yes");
-                        }
+        if (settings.isEnableCache()) {
+            IPCache.Lookup cached = ipCache.lookup(ip);
+            if (cached != IPCache.Lookup.MISS) {
+                Verdict.Source source = Verdict.Source.CACHE;
+                if (cached.isStale()) {
+                    source = Verdict.Source.STALE_CACHE;
+                    // Answer from the expired verdict right away and refresh it in the background
+                    staleCacheHits.increment();
+                    if (settings.isEnableDebug()) {
+                        VelocityShield.getInstance().getLogger().info("Using stale cached result for IP: " + ip + " - VPN: " + cached.isVPN() + ", refreshing");
+                    }
+                    // Skipped while saturated or overloaded; the stale verdict keeps being used until then
+                    if (!inFlight.containsKey(ip) && lookupPermits.availablePermits() > 0 && !overloadController.isDegraded()) {
+                        lookupCoalesced(ip, settings);
                     }
-                } else {
-                    if (jsonResponse.has("status") && jsonResponse.get("status").getAsString().equals("success")) {
-                        return jsonResponse.has("proxy") && jsonResponse.get("proxy").getAsBoolean();
+                } else if (cached.isPrefix()) {
+                    source = Verdict.Source.PREFIX_CACHE;
+                    prefixCacheHits.increment();
+                    if (settings.isEnableDebug()) {
+                        VelocityShield.getInstance().getLogger().info("Using prefix cached result for IP: " + ip + " - VPN: " + cached.isVPN());
                     }
+                } else if (settings.isEnableDebug()) {
+                    VelocityShield.getInstance().getLogger().info("Using cached result for IP: " + ip + " - VPN: " + cached.isVPN());
                 }
-            }
-        } catch (Exception e) {
-            if (config.isEnableDebug()) {
-                VelocityShield.getInstance().getLogger().error("Error with main VPN check for IP: " + ip, e);
+                return Verdict.of(cached.isVPN(), source);
             }
         }
         return null;
     }
 
-    private Boolean checkWithFallbackService(String ip) {
+    /**
+     * Starts a remote lookup so the verdict is cached before the IP logs in, unless the range database or a
+     * fresh cache entry already answers for it or a lookup is already running.
+     *
+     * @return whether a lookup was started
+     */
+    public boolean prefetch(String ip) {
+        ConfigSnapshot settings = config.getSnapshot();
+        long[] key = IPAddressUtil.parse(ip);
+        if (!settings.isEnableCache() || key == null || inFlight.containsKey(ip) || overloadController.isDegraded()) {
+            return false;
+        }
+        RangeDatabase database = rangeDatabase;
+        if ((database != null && database.find(key[0], key[1]) >= 0) || ipCache.containsFresh(ip)) {
+            return false;
+        }
+        lookupCoalesced(ip, settings);
+        return true;
+    }
+
+    private CompletableFuture<Verdict> lookupCoalesced(String ip, ConfigSnapshot settings) {
+        CompletableFuture<Verdict> pending = new CompletableFuture<>();
+        CompletableFuture<Verdict> existing = inFlight.putIfAbsent(ip, pending);
+        if (existing != null) {
+            coalescedRequests.increment();
+            if (settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().info("Joining in-flight VPN check for IP: " + ip);
+            }
+            return existing;
+        }
+
+        if (!lookupPermits.tryAcquire()) {
+            // Saturated: answer by policy right away rather than queueing behind lookups that may take seconds
+            saturatedLookups.increment();
+            boolean verdict = !settings.isLookupSaturationFailOpen();
+            if (settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().warn("Too many VPN checks running, " + (verdict ? "blocking" : "allowing")
+                    + " IP: " + ip + " due to lookup-saturation-policy setting");
+            }
+            inFlight.remove(ip, pending);
+            pending.complete(Verdict.of(verdict, Verdict.Source.SATURATED));
+            return pending;
+        }
+
+        remoteLookups.increment();
+        long start = System.nanoTime();
+        // The permit is held until no provider request of this lookup is running, even after waiters gave up on
+        // it, so slow services can't have more than max-concurrent-lookups lookups' requests open at once
+        CompletableFuture<Void> settled = new CompletableFuture<>();
+        settled.whenComplete((ignored, error) -> lookupPermits.release());
+        CompletableFuture<Verdict> lookup;
         try {
-            String url = !config.isUseProxycheckAsPrimary() ? 
-                String.format(PROXYCHECK_URL, ip, config.getProxycheckApiKey()) :
-                String.format(IP_API_URL, ip);
-
-            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(CONNECTION_TIMEOUT);
-            conn.setReadTimeout(READ_TIMEOUT);
-            conn.setRequestProperty("User-Agent", "VelocityShield/1.0");
-
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-                StringBuilder response = new StringBuilder();
-                char[] buffer = new char[1024];
-                int read;
-                while ((read = reader.read(buffer)) != -1) {
-                    response.append(buffer, 0, read);
-                }
+            lookup = lookup(ip, settings, settled);
+        } catch (RejectedExecutionException e) {
+            settled.complete(null);
+            lookup = CompletableFuture.failedFuture(e);
+        }
+        lookup.orTimeout(LOOKUP_TIMEOUT, TimeUnit.SECONDS).whenComplete((result, error) -> {
+            inFlight.remove(ip, pending);
+            long elapsed = System.nanoTime() - start;
+            lookupLatency.recordNanos(elapsed);
+            overloadController.recordLookup(elapsed);
+            if (error != null) {
+                failedLookups.increment();
+                VelocityShield.getInstance().getLogger().error("Error checking VPN status for IP: " + ip, error);
+                pending.complete(Verdict.of(!settings.isAllowJoinOnApiFailure(), Verdict.Source.API_FAILURE));
+            } else {
+                pending.complete(result);
+            }
+        });
+        return pending;
+    }
 
-                JsonObject jsonResponse = jsonParser.parse(response.toString()).getAsJsonObject();
-                
-                if (!config.isUseProxycheckAsPrimary()) {
-                    if (jsonResponse.has("status") && jsonResponse.get("status").getAsString().equals("ok")) {
-                        JsonObject ipData = jsonResponse.getAsJsonObject(ip);
-                        if (ipData != null && ipData.has("proxy")) {
-                            return ipData.get("proxy").getAsString().equals("yes");
-                        }
-                    }
-                } else {
-                    if (jsonResponse.has("status") && jsonResponse.get("status").getAsString().equals("success")) {
-                        return jsonResponse.has("proxy") && jsonResponse.get("proxy").getAsBoolean();
-                    }
+    private CompletableFuture<Verdict> lookup(String ip, ConfigSnapshot settings, CompletableFuture<Void> settled) {
+        return queryProviders(ip, settings, settled).thenApply(result -> {
+            if (result != null) {
+                if (settings.isEnableCache()) {
+                    ipCache.cacheResult(ip, result);
                 }
+                return Verdict.of(result, Verdict.Source.PROVIDER);
+            }
+            failedLookups.increment();
+            if (settings.isAllowJoinOnApiFailure()) {
+                if (settings.isEnableDebug()) {
+                    VelocityShield.getInstance().getLogger().warn("Both VPN checks failed for IP: " + ip + " - Allowing connection due to allow-join-on-api-failure setting");
+                }
+            } else if (settings.isEnableDebug()) {
+                VelocityShield.getInstance().getLogger().warn("Both VPN checks failed for IP: " + ip + " - Blocking connection due to allow-join-on-api-failure setting");
+            }
+            return Verdict.of(!settings.isAllowJoinOnApiFailure(), Verdict.Source.API_FAILURE);
+        });
+    }
+
+    public long getStaleCacheHits() {
+        return staleCacheHits.sum();
+    }
+
+    public long getPrefixCacheHits() {
+        return prefixCacheHits.sum();
+    }
+
+    public long getCoalescedRequests() {
+        return coalescedRequests.sum();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return lookups sent to the detection services, excluding callers that joined one already running
+     */
+    public long getRemoteLookups() {
+        return remoteLookups.sum();
+    }
+
+    /**
+     * @return remote lookups that ended without a verdict and fell back to allow-join-on-api-failure
+     */
+    public long getFailedLookups() {
+        return failedLookups.sum();
+    }
+
+    public LatencyHistogram getLookupLatency() {
+        return lookupLatency;
+    }
+
+    public IPCache getCache() {
+        return ipCache;
+    }
+
+    public IPFrequencySketch getFrequentJoiners() {
+        return frequentJoiners;
+    }
+
+    public OverloadController getOverloadController() {
+        return overloadController;
+    }
+
+    /**
+     * @return whether lookups run on virtual threads rather than the platform thread pool
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getActiveLookups() {
+        return maxConcurrentLookups - lookupPermits.availablePermits();
+    }
+
+    public int getMaxConcurrentLookups() {
+        return maxConcurrentLookups;
+    }
+
+    /**
+     * @return lookups answered by lookup-saturation-policy because max-concurrent-lookups were already running
+     */
+    public long getSaturatedLookups() {
+        return saturatedLookups.sum();
+    }
+
+    /**
+     * @return tasks waiting for a pool thread, always 0 with virtual threads
+     */
+    public int getExecutorQueueSize() {
+        return executorService instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executorService).getQueue().size() : 0;
+    }
+
+    /**
+     * @return busy pool threads; with virtual threads there is no pool, so this is {@link #getActiveLookups()}
+     */
+    public int getExecutorActiveCount() {
+        return executorService instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executorService).getActiveCount() : getActiveLookups();
+    }
+
+    /**
+     * @param settled completed once none of the provider requests started for this lookup is running; with
+     *                hedging that can be after the returned future, when the slower service is still answering
+     */
+    private CompletableFuture<Boolean> queryProviders(String ip, ConfigSnapshot settings, CompletableFuture<Void> settled) {
+        VpnProvider primary = settings.isUseProxycheckAsPrimary() ? proxycheckProvider : ipApiProvider;
+        CompletableFuture<Boolean> primaryResult = primary.check(ip);
+        if (!settings.isEnableFallbackService()) {
+            primaryResult.whenComplete((verdict, error) -> settled.complete(null));
+            return primaryResult;
+        }
+        VpnProvider secondary = primary == proxycheckProvider ? ipApiProvider : proxycheckProvider;
+        if (!settings.isEnableHedgedRequests()) {
+            CompletableFuture<Boolean> result = primaryResult.thenCompose(verdict -> verdict != null
+                ? CompletableFuture.completedFuture(verdict)
+                : secondary.check(ip));
+            result.whenComplete((verdict, error) -> settled.complete(null));
+            return result;
+        }
+
+        // Hedged mode: start the secondary early if the primary is slower than usual, first answer wins
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicInteger unanswered = new AtomicInteger(2);
+        AtomicBoolean secondaryStarted = new AtomicBoolean(false);
+        // Requests still running, plus one held until the secondary has either started or can no longer start
+        AtomicInteger running = new AtomicInteger(2);
+        Runnable requestDone = () -> {
+            if (running.decrementAndGet() == 0) {
+                settled.complete(null);
+            }
+        };
+        Runnable startSecondary = () -> {
+            // Counted before claiming the start, so whoever sees it claimed also sees it counted
+            running.incrementAndGet();
+            if (secondaryStarted.compareAndSet(false, true)) {
+                secondary.check(ip).whenComplete((verdict, error) -> {
+                    requestDone.run();
+                    onProviderAnswer(result, unanswered, verdict);
+                });
+            } else {
+                requestDone.run();
             }
-        } catch (Exception e) {
-            if (config.isEnableDebug()) {
-                VelocityShield.getInstance().getLogger().error("Error with fallback VPN check for IP: " + ip, e);
+        };
+        result.whenComplete((verdict, error) -> {
+            // Once answered the secondary is no longer needed, so it is either running already or never will be
+            secondaryStarted.compareAndSet(false, true);
+            requestDone.run();
+        });
+
+        primaryResult.whenComplete((verdict, error) -> requestDone.run());
+        primaryResult.thenAccept(verdict -> {
+            onProviderAnswer(result, unanswered, verdict);
+            if (verdict == null) {
+                startSecondary.run();
             }
+        });
+        if (!result.isDone()) {
+            CompletableFuture.delayedExecutor(getHedgeDelayMillis(primary, settings), TimeUnit.MILLISECONDS).execute(() -> {
+                if (!result.isDone() && !secondaryStarted.get()) {
+                    hedgedRequests.increment();
+                    if (settings.isEnableDebug()) {
+                        VelocityShield.getInstance().getLogger().info("Hedging VPN check for IP: " + ip + " to " + secondary.getName());
+                    }
+                    startSecondary.run();
+                }
+            });
         }
-        return null;
+        return result;
+    }
+
+    private static void onProviderAnswer(CompletableFuture<Boolean> result, AtomicInteger unanswered, Boolean verdict) {
+        if (verdict != null) {
+            result.complete(verdict);
+        } else if (unanswered.decrementAndGet() == 0) {
+            result.complete(null);
+        }
+    }
+
+    private static long getHedgeDelayMillis(VpnProvider primary, ConfigSnapshot settings) {
+        long percentile = primary.getLatency().percentileMicros(settings.getHedgePercentile(), MIN_HEDGE_SAMPLES);
+        long delay = percentile < 0 ? DEFAULT_HEDGE_DELAY_MS : TimeUnit.MICROSECONDS.toMillis(percentile);
+        return Math.max(settings.getHedgeMinDelayMs(), delay);
+    }
+
+    public VpnProvider getPrimaryProvider() {
+        return config.getSnapshot().isUseProxycheckAsPrimary() ? proxycheckProvider : ipApiProvider;
+    }
+
+    public VpnProvider getSecondaryProvider() {
+        return config.getSnapshot().isUseProxycheckAsPrimary() ? ipApiProvider : proxycheckProvider;
+    }
+
+    public List<VpnProvider> getProviders() {
+        return List.of(proxycheckProvider, ipApiProvider);
+    }
+
+    public long getHedgedRequests() {
+        return hedgedRequests.sum();
     }
 
     public void shutdown() {
+        overloadController.shutdown();
+        proxycheckProvider.shutdown();
+        ipApiProvider.shutdown();
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -204,5 +583,6 @@ public class VPNChecker {
             executorService.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        ipCache.shutdown();
     }
 } 
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.pandadevv.VelocityShield.util;
+
+/**
+ * Outcome of a VPN check along with where it came from, so callers can tell verdicts backed by a detection
+ * service from ones filled in by a fail-open or fail-closed setting. Instances are shared; there is one per
+ * source and outcome.
+ */
+public final class Verdict {
+    public enum Source {
+        RANGE_DATABASE,
+        CACHE,
+        STALE_CACHE,
+        PREFIX_CACHE,
+        PROVIDER,
+        // Filled in by allow-join-on-api-failure, lookup-saturation-policy and overload-unknown-verdict
+        API_FAILURE,
+        SATURATED,
+        OVERLOAD
+    }
+
+    private static final Verdict[] INSTANCES = new Verdict[Source.values().length * 2];
+
+    static {
+        for (Source source : Source.values()) {
+            INSTANCES[source.ordinal() * 2] = new Verdict(false, source);
+            INSTANCES[source.ordinal() * 2 + 1] = new Verdict(true, source);
+        }
+    }
+
+    private final boolean vpn;
+    private final Source source;
+
+    private Verdict(boolean vpn, Source source) {
+        this.vpn = vpn;
+        this.source = source;
+    }
+
+    public static Verdict of(boolean vpn, Source source) {
+        return INSTANCES[source.ordinal() * 2 + (vpn ? 1 : 0)];
+    }
+
+    public boolean isVPN() {
+        return vpn;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return whether a detection service answered for this exact IP, now or within the cache TTL
+     */
+    public boolean isConfirmed() {
+        return source == Source.PROVIDER || source == Source.CACHE;
+    }
+
+    @Override
+    public String toString() {
+        return (vpn ? "VPN" : "clean") + " (" + source + ")";
+    }
+}
@@ -0,0 +1,120 @@
+package com.pandadevv.VelocityShield.provider;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferedBodySubscriberTest {
+    // 1, 2, 3 and 4 byte sequences
+    private static final String TEXT = "{\"ip\":\"1.2.3.4\",\"isp\":\"Café € 中文 😀🌍\"}";
+
+    @Test
+    void decodesSequencesSplitAtEveryBoundary() throws IOException {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            assertEquals(TEXT, readAll(split(bytes, split), 1024), "split at " + split);
+        }
+        for (int size = 1; size <= 5; size++) {
+            assertEquals(TEXT, readAll(chunks(bytes, size), 1024), "chunks of " + size);
+        }
+    }
+
+    @Test
+    void handsOutSurrogatePairsOneCharAtATime() throws IOException {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        assertEquals(TEXT, readAll(chunks(bytes, 1), 1));
+        assertEquals(TEXT, readAll(List.of(ByteBuffer.wrap(bytes)), 1));
+    }
+
+    @Test
+    void replacesMalformedInputLikeTheJdk() throws IOException {
+        byte[][] inputs = {
+            {(byte) 0x80},
+            {(byte) 0xC0, (byte) 0xAF},
+            {(byte) 0xE0, (byte) 0x80, (byte) 0xAF},
+            {(byte) 0xED, (byte) 0xA0, (byte) 0x80},
+            {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80},
+            {(byte) 0xF5, 'a'},
+            {(byte) 0xE2, 'a', (byte) 0x82},
+            {(byte) 0xE2, (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80},
+            {'a', (byte) 0xFF, 'b'},
+        };
+        for (byte[] input : inputs) {
+            String expected = new String(input, StandardCharsets.UTF_8);
+            for (int size = 1; size <= input.length; size++) {
+                assertEquals(expected, readAll(chunks(input, size), 1024));
+            }
+        }
+    }
+
+    @Test
+    void replacesASequenceCutOffByTheEndOfTheBody() throws IOException {
+        assertEquals("ab\uFFFD", readAll(chunks(new byte[] {'a', 'b', (byte) 0xE2, (byte) 0x82}, 1), 1024));
+        assertEquals("\uFFFD", readAll(List.of(ByteBuffer.wrap(new byte[] {(byte) 0xF0, (byte) 0x9F, (byte) 0x98})), 1024));
+    }
+
+    @Test
+    void keepsReturningEndOfStream() throws IOException {
+        Reader reader = BufferedBodySubscriber.reader(List.of(ByteBuffer.wrap("ok".getBytes(StandardCharsets.UTF_8)),
+            ByteBuffer.allocate(0)));
+        char[] buffer = new char[8];
+        assertEquals(2, reader.read(buffer, 0, 8));
+        assertFalse(reader.ready());
+        assertEquals(-1, reader.read(buffer, 0, 8));
+        assertEquals(-1, reader.read(buffer, 0, 8));
+        assertEquals(0, reader.read(buffer, 0, 0));
+        assertEquals(-1, BufferedBodySubscriber.reader(List.of()).read(buffer, 0, 8));
+    }
+
+    @Test
+    void matchesTheJdkOnRandomBytes() throws IOException {
+        Random random = new Random(11);
+        for (int i = 0; i < 5000; i++) {
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int j = 0; j < bytes.length; j++) {
+                // Mostly lead and continuation bytes, so sequences are often valid and often split
+                bytes[j] = (byte) (random.nextInt(4) == 0 ? random.nextInt(128) : 0x80 + random.nextInt(128));
+            }
+            List<ByteBuffer> buffers = new ArrayList<>();
+            int position = 0;
+            while (position < bytes.length) {
+                int size = Math.min(bytes.length - position, 1 + random.nextInt(5));
+                buffers.add(ByteBuffer.wrap(bytes, position, size).slice());
+                position += size;
+            }
+            assertEquals(new String(bytes, StandardCharsets.UTF_8), readAll(buffers, 1 + random.nextInt(4)));
+        }
+    }
+
+    private static String readAll(List<ByteBuffer> buffers, int readSize) throws IOException {
+        Reader reader = BufferedBodySubscriber.reader(buffers);
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[readSize];
+        int read;
+        while ((read = reader.read(buffer, 0, readSize)) != -1) {
+            assertTrue(read > 0);
+            result.append(buffer, 0, read);
+        }
+        return result.toString();
+    }
+
+    private static List<ByteBuffer> split(byte[] bytes, int at) {
+        return List.of(ByteBuffer.wrap(bytes, 0, at).slice(), ByteBuffer.wrap(bytes, at, bytes.length - at).slice());
+    }
+
+    private static List<ByteBuffer> chunks(byte[] bytes, int size) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += size) {
+            buffers.add(ByteBuffer.wrap(bytes, i, Math.min(size, bytes.length - i)).slice());
+        }
+        return buffers;
+    }
+}
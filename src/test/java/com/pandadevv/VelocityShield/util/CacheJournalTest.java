@@ -0,0 +1,142 @@
+package com.pandadevv.VelocityShield.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheJournalTest {
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 28;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysAppendedRecordsInOrder() throws IOException {
+        Path file = dir.resolve("cache.journal");
+        CacheJournal journal = new CacheJournal(file);
+        assertFalse(journal.exists());
+        journal.load((high, low, value) -> fail("new journal has no records"));
+        journal.append(1, 2, 3);
+        journal.append(4, 5, 6);
+        journal.append(1, 2, 7);
+        journal.close();
+        assertEquals(HEADER_SIZE + 3 * RECORD_SIZE, Files.size(file));
+
+        Map<Long, Long> replayed = load(file);
+        assertEquals(Map.of(2L, 7L, 5L, 6L), replayed);
+    }
+
+    @Test
+    void cutsATornTailAndKeepsAppending() throws IOException {
+        Path file = dir.resolve("cache.journal");
+        writeRecords(file, 3);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(HEADER_SIZE + 2 * RECORD_SIZE + 10);
+        }
+
+        CacheJournal journal = new CacheJournal(file);
+        Map<Long, Long> replayed = new HashMap<>();
+        journal.load((high, low, value) -> replayed.put(low, value));
+        assertEquals(Map.of(0L, 0L, 1L, 100L), replayed);
+        assertEquals(2, journal.getRecordCount());
+        assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, Files.size(file));
+        journal.append(0, 9, 900);
+        journal.close();
+
+        assertEquals(Map.of(0L, 0L, 1L, 100L, 9L, 900L), load(file));
+    }
+
+    @Test
+    void stopsAtARecordWithABadChecksum() throws IOException {
+        Path file = dir.resolve("cache.journal");
+        writeRecords(file, 5);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long offset = HEADER_SIZE + 3 * RECORD_SIZE + 20;
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x01);
+        }
+
+        assertEquals(Map.of(0L, 0L, 1L, 100L, 2L, 200L), load(file));
+        assertEquals(HEADER_SIZE + 3 * RECORD_SIZE, Files.size(file));
+    }
+
+    @Test
+    void rejectsAFileThatIsNotAJournal() throws IOException {
+        Path file = dir.resolve("cache.journal");
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        assertThrows(IOException.class, () -> new CacheJournal(file).load((high, low, value) -> { }));
+    }
+
+    @Test
+    void compactionKeepsRecordsAppendedWhileItRan() throws IOException {
+        Path file = dir.resolve("cache.journal");
+        CacheJournal journal = new CacheJournal(file);
+        journal.load((high, low, value) -> { });
+        IPCacheStore store = new IPCacheStore(1000);
+        for (long key = 0; key < 100; key++) {
+            store.put(0, key, key);
+            journal.append(0, key, key);
+            journal.append(0, key, key);
+        }
+
+        long mark = journal.startCompaction();
+        long written = journal.writeCompaction(store);
+        // Writes that land between the snapshot and the end of the compaction
+        journal.append(0, 5, 555);
+        journal.append(0, 200, 200);
+        journal.finishCompaction(mark, written);
+        assertEquals(102, journal.getRecordCount());
+        journal.append(0, 201, 201);
+        journal.close();
+
+        Map<Long, Long> replayed = load(file);
+        assertEquals(102, replayed.size());
+        assertEquals(555L, replayed.get(5L));
+        assertEquals(200L, replayed.get(200L));
+        assertEquals(201L, replayed.get(201L));
+        assertFalse(Files.exists(dir.resolve("cache.journal.compact")));
+    }
+
+    @Test
+    void abortedCompactionLeavesTheLogAlone() throws IOException {
+        Path file = dir.resolve("cache.journal");
+        writeRecords(file, 3);
+        CacheJournal journal = new CacheJournal(file);
+        journal.load((high, low, value) -> { });
+        journal.startCompaction();
+        journal.writeCompaction(new IPCacheStore(10));
+        journal.abortCompaction();
+        journal.close();
+
+        assertFalse(Files.exists(dir.resolve("cache.journal.compact")));
+        assertEquals(3, load(file).size());
+    }
+
+    private static void writeRecords(Path file, int count) throws IOException {
+        CacheJournal journal = new CacheJournal(file);
+        journal.load((high, low, value) -> { });
+        for (long i = 0; i < count; i++) {
+            journal.append(0, i, i * 100);
+        }
+        journal.close();
+    }
+
+    private static Map<Long, Long> load(Path file) throws IOException {
+        Map<Long, Long> replayed = new HashMap<>();
+        CacheJournal journal = new CacheJournal(file);
+        journal.load((high, low, value) -> replayed.put(low, value));
+        journal.close();
+        return replayed;
+    }
+}
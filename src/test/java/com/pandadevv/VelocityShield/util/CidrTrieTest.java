@@ -0,0 +1,82 @@
+package com.pandadevv.VelocityShield.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CidrTrieTest {
+    @Test
+    void matchesAddressesInsideStoredRanges() {
+        CidrTrie trie = trie("10.0.0.0/8", "192.168.1.0/24", "2001:db8::/32", "203.0.113.7");
+        assertTrue(trie.contains("10.255.0.1"));
+        assertTrue(trie.contains("192.168.1.200"));
+        assertTrue(trie.contains("2001:db8:1234::1"));
+        assertTrue(trie.contains("203.0.113.7"));
+        assertFalse(trie.contains("11.0.0.1"));
+        assertFalse(trie.contains("192.168.2.1"));
+        assertFalse(trie.contains("2001:db9::1"));
+        assertFalse(trie.contains("203.0.113.8"));
+        assertFalse(trie.contains("not an ip"));
+    }
+
+    @Test
+    void keepsIPv4AndIPv6Apart() {
+        CidrTrie trie = trie("0.0.0.0/0");
+        assertTrue(trie.contains("1.2.3.4"));
+        assertTrue(trie.contains("::ffff:1.2.3.4"));
+        assertFalse(trie.contains("2001:db8::1"));
+        assertTrue(trie("::/0").contains("2001:db8::1"));
+    }
+
+    @Test
+    void countsOnlyRangesNotAlreadyCovered() {
+        CidrTrie trie = trie("10.0.0.0/8", "10.1.0.0/16", "10.0.0.0/8");
+        assertEquals(1, trie.size());
+        // A wider range added later still covers everything inside it
+        trie = trie("10.1.0.0/16", "10.2.0.0/16", "10.0.0.0/8");
+        assertTrue(trie.contains("10.3.0.1"));
+        assertTrue(trie.contains("10.1.0.1"));
+    }
+
+    @Test
+    void agreesWithLinearScanOnRandomRanges() {
+        Random random = new Random(42);
+        CidrTrie trie = new CidrTrie();
+        List<long[]> ranges = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int length = 8 + random.nextInt(25);
+            long[] range = IPAddressUtil.parseCidr(randomIPv4(random) + "/" + length);
+            ranges.add(range);
+            trie.add(range[0], range[1], (int) range[2]);
+        }
+        for (int i = 0; i < 20000; i++) {
+            long[] key = IPAddressUtil.parse(randomIPv4(random));
+            boolean expected = false;
+            for (long[] range : ranges) {
+                int length = (int) range[2];
+                if (IPAddressUtil.maskHigh(key[0], length) == range[0] && IPAddressUtil.maskLow(key[1], length) == range[1]) {
+                    expected = true;
+                    break;
+                }
+            }
+            assertEquals(expected, trie.contains(key[0], key[1]));
+        }
+    }
+
+    private static CidrTrie trie(String... entries) {
+        CidrTrie trie = new CidrTrie();
+        for (String entry : entries) {
+            long[] range = IPAddressUtil.parseCidr(entry);
+            trie.add(range[0], range[1], (int) range[2]);
+        }
+        return trie;
+    }
+
+    private static String randomIPv4(Random random) {
+        return random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    }
+}
@@ -0,0 +1,108 @@
+package com.pandadevv.VelocityShield.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(5);
+
+    @Test
+    void staysClosedUntilEnoughCallsWereMade() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 100, 1000, 60);
+        for (int i = 0; i < 9; i++) {
+            breaker.onResult(true, FAST);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onResult(true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    void opensAtTheFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 100, 1000, 60);
+        for (int i = 0; i < 6; i++) {
+            breaker.onResult(false, FAST);
+        }
+        for (int i = 0; i < 5; i++) {
+            breaker.onResult(true, FAST);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onResult(true, FAST);
+        assertEquals(50.0, breaker.getFailureRate());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void oldCallsLeaveTheWindow() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 60, 100, 1000, 60);
+        for (int i = 0; i < 10; i++) {
+            breaker.onResult(i % 2 == 0, FAST);
+        }
+        assertEquals(50.0, breaker.getFailureRate());
+        for (int i = 0; i < 10; i++) {
+            breaker.onResult(false, FAST);
+        }
+        assertEquals(25.0, breaker.getFailureRate());
+        for (int i = 0; i < 10; i++) {
+            breaker.onResult(false, FAST);
+        }
+        assertEquals(0.0, breaker.getFailureRate());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void opensAtTheSlowCallRate() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 80, 1000, 60);
+        for (int i = 0; i < 10; i++) {
+            breaker.onResult(false, i < 8 ? SLOW : FAST);
+        }
+        assertEquals(80.0, breaker.getSlowCallRate());
+        assertEquals(0.0, breaker.getFailureRate());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void closesAfterSuccessfulTrialCalls() {
+        CircuitBreaker breaker = openBreaker();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquirePermission());
+        }
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission(), "only three trial calls");
+        for (int i = 0; i < 3; i++) {
+            breaker.onResult(false, FAST);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.getFailureRate());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    void reopensWhenATrialCallFailsOrIsSlow() {
+        CircuitBreaker breaker = openBreaker();
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(false, FAST);
+        breaker.onResult(false, SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker openBreaker() {
+        // An open period of 0 lets the next call through as a trial right away
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 100, 1000, 0);
+        for (int i = 0; i < 10; i++) {
+            breaker.onResult(true, FAST);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
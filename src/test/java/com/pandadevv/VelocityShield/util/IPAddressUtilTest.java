@@ -0,0 +1,89 @@
+package com.pandadevv.VelocityShield.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IPAddressUtilTest {
+    @Test
+    void parsesIPv4IntoTheMappedRange() {
+        assertArrayEquals(new long[] {0L, 0x0000FFFF0A000001L}, IPAddressUtil.parse("10.0.0.1"));
+        assertArrayEquals(new long[] {0L, 0x0000FFFFFFFFFFFFL}, IPAddressUtil.parse("255.255.255.255"));
+        assertArrayEquals(IPAddressUtil.parse("1.2.3.4"), IPAddressUtil.parse("::ffff:1.2.3.4"));
+    }
+
+    @Test
+    void rejectsInvalidIPv4() {
+        for (String ip : new String[] {"", "1.2.3", "1.2.3.4.5", "256.1.1.1", "01.2.3.4", "1..2.3", "1.2.3.4 ", "a.b.c.d"}) {
+            assertNull(IPAddressUtil.parse(ip), ip);
+        }
+        assertNull(IPAddressUtil.parse(null));
+    }
+
+    @Test
+    void parsesIPv6Forms() {
+        assertArrayEquals(new long[] {0L, 1L}, IPAddressUtil.parse("::1"));
+        assertArrayEquals(new long[] {0L, 0L}, IPAddressUtil.parse("::"));
+        assertArrayEquals(new long[] {0x20010DB800000000L, 0L}, IPAddressUtil.parse("2001:db8::"));
+        assertArrayEquals(new long[] {0x0001000200030004L, 0x0005000600070008L}, IPAddressUtil.parse("1:2:3:4:5:6:7:8"));
+        assertArrayEquals(new long[] {0x0001000000000000L, 0x0000000000070008L}, IPAddressUtil.parse("1::7:8"));
+        assertArrayEquals(new long[] {0x0001000200030004L, 0x0005000600070000L}, IPAddressUtil.parse("1:2:3:4:5:6:7::"));
+        assertArrayEquals(new long[] {0x0000000200030004L, 0x0005000600070008L}, IPAddressUtil.parse("::2:3:4:5:6:7:8"));
+        assertArrayEquals(new long[] {0x0001000000000000L, 0x0000000001020304L}, IPAddressUtil.parse("1::1.2.3.4"));
+        assertArrayEquals(IPAddressUtil.parse("fe80::1"), IPAddressUtil.parse("[fe80::1]"));
+        assertArrayEquals(IPAddressUtil.parse("fe80::1"), IPAddressUtil.parse("fe80::1%eth0"));
+        assertArrayEquals(IPAddressUtil.parse("2001:DB8::A"), IPAddressUtil.parse("2001:db8::a"));
+    }
+
+    @Test
+    void rejectsInvalidIPv6() {
+        for (String ip : new String[] {":", ":1", "1:", "1:::2", "1::2::3", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7:8::",
+                "12345::", "g::1", "1:2:3:4:5:6:7:1.2.3.4", "::1.2.3"}) {
+            assertNull(IPAddressUtil.parse(ip), ip);
+        }
+    }
+
+    @Test
+    void parsesIntoCallerStorage() {
+        long[] key = new long[2];
+        assertTrue(IPAddressUtil.parse("2001:db8::5", key));
+        assertArrayEquals(IPAddressUtil.parse("2001:db8::5"), key);
+        assertTrue(IPAddressUtil.parse("192.168.1.1", key));
+        assertArrayEquals(IPAddressUtil.parse("192.168.1.1"), key);
+        assertFalse(IPAddressUtil.parse("not an ip", key));
+    }
+
+    @Test
+    void parsesCidrWithHostBitsCleared() {
+        long[] v4 = IPAddressUtil.parseCidr("10.1.2.3/8");
+        assertArrayEquals(new long[] {0L, 0x0000FFFF0A000000L, 104}, v4);
+        long[] v6 = IPAddressUtil.parseCidr("2001:db8:ffff::1/32");
+        assertArrayEquals(new long[] {0x20010DB800000000L, 0L, 32}, v6);
+        assertEquals(128, IPAddressUtil.parseCidr("10.0.0.1")[2]);
+        assertNull(IPAddressUtil.parseCidr("10.0.0.0/33"));
+        assertNull(IPAddressUtil.parseCidr("::/129"));
+        assertNull(IPAddressUtil.parseCidr("10.0.0.0/"));
+        assertNull(IPAddressUtil.parseCidr("10.0.0.0/-1"));
+    }
+
+    @Test
+    void formatsCanonically() {
+        assertEquals("10.0.0.1", format("10.0.0.1"));
+        assertEquals("2001:db8::1", format("2001:0db8:0000:0000:0000:0000:0000:0001"));
+        assertEquals("::", format("0:0:0:0:0:0:0:0"));
+        // Only the longest run of zeros is compressed, the first one on a tie
+        assertEquals("1:0:0:2::3", format("1:0:0:2:0:0:0:3"));
+        assertEquals("1::2:0:0:3:4", format("1:0:0:2:0:0:3:4"));
+        assertEquals("1:0:2:3:4:5:6:7", format("1:0:2:3:4:5:6:7"));
+        assertEquals("10.0.0.0/8", IPAddressUtil.formatCidr(0L, 0x0000FFFF0A000000L, 104));
+        assertEquals("2001:db8::/32", IPAddressUtil.formatCidr(0x20010DB800000000L, 0L, 32));
+    }
+
+    private static String format(String ip) {
+        long[] key = IPAddressUtil.parse(ip);
+        assertNotNull(key, ip);
+        String formatted = IPAddressUtil.format(key[0], key[1]);
+        assertArrayEquals(key, IPAddressUtil.parse(formatted), formatted);
+        return formatted;
+    }
+}
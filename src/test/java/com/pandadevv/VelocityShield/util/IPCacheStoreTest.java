@@ -0,0 +1,117 @@
+package com.pandadevv.VelocityShield.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IPCacheStoreTest {
+    @Test
+    void storesAndRemovesEntries() {
+        IPCacheStore store = new IPCacheStore(100);
+        store.put(0, 1, 10);
+        store.put(5, 1, 20);
+        store.put(0, 1, 11);
+        assertEquals(11, store.get(0, 1));
+        assertEquals(20, store.get(5, 1));
+        assertEquals(IPCacheStore.NO_VALUE, store.get(0, 2));
+        assertEquals(2, store.size());
+        assertEquals(11, store.remove(0, 1));
+        assertEquals(IPCacheStore.NO_VALUE, store.remove(0, 1));
+        assertEquals(1, store.size());
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(IPCacheStore.NO_VALUE, store.get(5, 1));
+    }
+
+    @Test
+    void keepsProbeChainsIntactAcrossDeletes() {
+        // Random puts and removes against a HashMap; a broken backward shift would lose entries behind a hole
+        IPCacheStore store = new IPCacheStore(100_000);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(20_000);
+            if (random.nextInt(3) == 0) {
+                Long removed = expected.remove(key);
+                assertEquals(removed == null ? IPCacheStore.NO_VALUE : removed, store.remove(0, key));
+            } else {
+                long value = random.nextInt(Integer.MAX_VALUE);
+                expected.put(key, value);
+                store.put(0, key, value);
+            }
+        }
+        assertEquals(expected.size(), store.size());
+        for (long key = 0; key < 20_000; key++) {
+            Long value = expected.get(key);
+            assertEquals(value == null ? IPCacheStore.NO_VALUE : value, store.get(0, key));
+        }
+    }
+
+    @Test
+    void removeIfKeepsOtherEntriesReachable() {
+        IPCacheStore store = new IPCacheStore(10_000);
+        for (long key = 0; key < 5000; key++) {
+            store.put(key, key, key);
+        }
+        assertEquals(2500, store.removeIf((high, low, value) -> value % 2 == 0));
+        for (long key = 0; key < 5000; key++) {
+            assertEquals(key % 2 == 0 ? IPCacheStore.NO_VALUE : key, store.get(key, key));
+        }
+        long[] sum = {0};
+        store.forEach((high, low, value) -> sum[0] += value);
+        assertEquals(2500L * 2500, sum[0]);
+    }
+
+    @Test
+    void staysWithinMaxSize() {
+        IPCacheStore store = new IPCacheStore(1000);
+        for (long key = 0; key < 10_000; key++) {
+            store.put(0, key, key);
+        }
+        assertEquals(1000, store.size());
+        assertEquals(9000, store.evictionCount());
+    }
+
+    @Test
+    void hitEntriesSurviveAFloodOfNewKeys() {
+        // Small enough for a single segment: 8 protected slots, new keys only churn probation
+        IPCacheStore store = new IPCacheStore(10);
+        for (long key = 0; key < 10; key++) {
+            store.put(0, key, key);
+        }
+        for (long key = 0; key < 5; key++) {
+            store.get(0, key);
+        }
+        for (long key = 100; key < 200; key++) {
+            store.put(0, key, key);
+        }
+        for (long key = 0; key < 5; key++) {
+            assertEquals(key, store.get(0, key), "promoted key " + key);
+        }
+        for (long key = 5; key < 10; key++) {
+            assertEquals(IPCacheStore.NO_VALUE, store.get(0, key), "unused key " + key);
+        }
+        assertEquals(10, store.size());
+    }
+
+    @Test
+    void protectedOverflowIsDemotedBeforeEviction() {
+        IPCacheStore store = new IPCacheStore(10);
+        for (long key = 0; key < 10; key++) {
+            store.put(0, key, key);
+            store.get(0, key);
+        }
+        // Keys 0 and 1 were demoted to probation when the protected queue overflowed, so they go first
+        store.put(0, 100, 100);
+        store.put(0, 101, 101);
+        assertEquals(IPCacheStore.NO_VALUE, store.get(0, 0));
+        assertEquals(IPCacheStore.NO_VALUE, store.get(0, 1));
+        for (long key = 2; key < 10; key++) {
+            assertEquals(key, store.get(0, key));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.pandadevv.VelocityShield.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IPFrequencySketchTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void ranksIPsByHowOftenTheyWereRecorded() {
+        IPFrequencySketch sketch = new IPFrequencySketch(10);
+        record(sketch, "1.1.1.1", 3);
+        record(sketch, "2.2.2.2", 5);
+        record(sketch, "3.3.3.3", 1);
+        assertEquals(List.of("2.2.2.2", "1.1.1.1", "3.3.3.3"), sketch.top(10, DAY));
+        assertEquals(List.of("2.2.2.2"), sketch.top(1, DAY));
+        assertEquals(3, sketch.size());
+    }
+
+    @Test
+    void newIPsTakeOverTheSmallestCounter() {
+        IPFrequencySketch sketch = new IPFrequencySketch(2);
+        record(sketch, "1.1.1.1", 5);
+        record(sketch, "2.2.2.2", 2);
+        sketch.record("3.3.3.3");
+        assertTrue(sketch.contains("1.1.1.1"));
+        assertFalse(sketch.contains("2.2.2.2"));
+        assertTrue(sketch.contains("3.3.3.3"));
+        assertEquals(2, sketch.size());
+        // Inherited a count of 2 but was seen once, so it is not trusted
+        assertFalse(sketch.isTrusted("3.3.3.3"));
+        assertTrue(sketch.isTrusted("1.1.1.1"));
+    }
+
+    @Test
+    void trustsOnlyIPsSeenAtLeastTwice() {
+        IPFrequencySketch sketch = new IPFrequencySketch(10);
+        sketch.record("1.1.1.1");
+        assertFalse(sketch.isTrusted("1.1.1.1"));
+        sketch.record("1.1.1.1");
+        assertTrue(sketch.isTrusted("1.1.1.1"));
+        assertFalse(sketch.isTrusted("9.9.9.9"));
+    }
+
+    @Test
+    void keepsHeavyHittersAndNeverOvertrusts() {
+        int capacity = 50;
+        IPFrequencySketch sketch = new IPFrequencySketch(capacity);
+        Map<String, Integer> exact = new HashMap<>();
+        Random random = new Random(1);
+        int total = 100_000;
+        for (int i = 0; i < total; i++) {
+            // A few frequent IPs within a long tail of one-time ones
+            String ip = random.nextInt(4) == 0 ? "10.0.0." + random.nextInt(10) : "172.16." + (i >> 8) + "." + (i & 0xFF);
+            exact.merge(ip, 1, Integer::sum);
+            sketch.record(ip);
+        }
+        assertEquals(capacity, sketch.size());
+        for (Map.Entry<String, Integer> entry : exact.entrySet()) {
+            if (entry.getValue() > total / capacity) {
+                assertTrue(sketch.contains(entry.getKey()), entry.getKey());
+            }
+            if (sketch.isTrusted(entry.getKey())) {
+                assertTrue(entry.getValue() >= 2, entry.getKey());
+            }
+        }
+        for (String ip : sketch.top(10, DAY)) {
+            assertTrue(ip.startsWith("10.0.0."), ip);
+        }
+    }
+
+    @Test
+    void survivesASaveAndLoad() throws IOException {
+        Path file = dir.resolve("hot-ips.dat");
+        IPFrequencySketch sketch = new IPFrequencySketch(2);
+        record(sketch, "1.1.1.1", 4);
+        sketch.record("2.2.2.2");
+        sketch.record("3.3.3.3");
+        sketch.save(file, DAY);
+
+        IPFrequencySketch loaded = new IPFrequencySketch(10);
+        loaded.load(file);
+        assertEquals(sketch.top(10, DAY), loaded.top(10, DAY));
+        assertTrue(loaded.isTrusted("1.1.1.1"));
+        assertFalse(loaded.isTrusted("3.3.3.3"), "the inherited error is kept");
+
+        IPFrequencySketch smaller = new IPFrequencySketch(1);
+        smaller.load(file);
+        assertEquals(List.of("1.1.1.1"), smaller.top(10, DAY));
+    }
+
+    @Test
+    void loadsFilesWithoutErrorsConservatively() throws IOException {
+        Path file = dir.resolve("hot-ips.dat");
+        long now = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x56534849);
+            out.writeInt(1);
+            out.writeInt(2);
+            out.writeUTF("1.1.1.1");
+            out.writeLong(7);
+            out.writeLong(now);
+            out.writeUTF("2.2.2.2");
+            out.writeLong(1);
+            out.writeLong(now);
+        }
+        IPFrequencySketch sketch = new IPFrequencySketch(10);
+        sketch.load(file);
+        assertEquals(List.of("1.1.1.1", "2.2.2.2"), sketch.top(10, DAY));
+        assertFalse(sketch.isTrusted("1.1.1.1"));
+        sketch.record("1.1.1.1");
+        assertTrue(sketch.isTrusted("1.1.1.1"));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("hot-ips.dat");
+        Files.write(file, new byte[] {0, 0, 0, 1, 0, 0, 0, 2});
+        assertThrows(IOException.class, () -> new IPFrequencySketch(10).load(file));
+    }
+
+    private static void record(IPFrequencySketch sketch, String ip, int times) {
+        for (int i = 0; i < times; i++) {
+            sketch.record(ip);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.pandadevv.VelocityShield.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Only moves when the test advances it
+    private long now = TimeUnit.DAYS.toNanos(1);
+
+    @Test
+    void handsOutTheBurstWithoutWaiting() {
+        TokenBucket bucket = new TokenBucket("test", 1, 5, () -> now);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.reserve(0), "permit " + i);
+        }
+        assertEquals(-1, bucket.reserve(0));
+        assertEquals(0, bucket.getAvailableTokens(), 1e-9);
+    }
+
+    @Test
+    void delaysEachPermitAfterTheBurstByOneInterval() {
+        TokenBucket bucket = new TokenBucket("test", 10, 2, () -> now);
+        bucket.reserve(0);
+        bucket.reserve(0);
+        assertEquals(100 * MILLI, bucket.reserve(TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(200 * MILLI, bucket.reserve(TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(-2, bucket.getAvailableTokens(), 1e-9);
+    }
+
+    @Test
+    void refillsAsTimePasses() {
+        TokenBucket bucket = new TokenBucket("test", 10, 2, () -> now);
+        bucket.reserve(0);
+        bucket.reserve(0);
+        assertEquals(-1, bucket.reserve(0));
+        now += 100 * MILLI;
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(-1, bucket.reserve(0));
+        // Idle time refills no more than the burst
+        now += TimeUnit.HOURS.toNanos(1);
+        assertEquals(2, bucket.getAvailableTokens(), 1e-9);
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(-1, bucket.reserve(0));
+    }
+
+    @Test
+    void rejectsPermitsBeyondTheMaxWait() {
+        TokenBucket bucket = new TokenBucket("test", 1, 1, () -> now);
+        assertTrue(bucket.acquire(0, TimeUnit.SECONDS).join());
+        assertFalse(bucket.acquire(100, TimeUnit.MILLISECONDS).join());
+        assertEquals(1, bucket.getRejectedPermits());
+        assertEquals(0, bucket.getDelayedPermits());
+        // A rejected permit reserves nothing
+        now += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(bucket.acquire(0, TimeUnit.SECONDS).join());
+    }
+
+    @Test
+    void completesDelayedPermitsWithTrue() {
+        TokenBucket bucket = new TokenBucket("test", 1000, 1, () -> now);
+        assertTrue(bucket.acquire(0, TimeUnit.SECONDS).join());
+        assertTrue(bucket.acquire(1, TimeUnit.SECONDS).join());
+        assertEquals(1, bucket.getDelayedPermits());
+        assertEquals(MILLI, bucket.getWaitNanos());
+        assertEquals(0, bucket.getRejectedPermits());
+    }
+}